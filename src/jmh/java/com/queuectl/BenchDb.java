@@ -0,0 +1,51 @@
+package com.queuectl;
+
+import com.queuectl.Models.Job;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/** Temp-dir database lifecycle and seeding shared by the JMH benchmarks. */
+final class BenchDb {
+    private static final int SEED_CHUNK = 10_000;
+
+    private BenchDb() {}
+
+    /** Points Storage at a fresh database in a new temp directory and migrates it. */
+    static Path open() throws IOException {
+        Path dir = Files.createTempDirectory("queuectl-jmh");
+        Storage.useDatabase(dir.resolve("bench.db").toString());
+        Storage.init();
+        return dir;
+    }
+
+    /** Inserts {@code rows} jobs named {@code prefix-N} in {@code state}, due immediately. */
+    static void seed(String prefix, int rows, String state) {
+        List<Job> chunk = new ArrayList<>(SEED_CHUNK);
+        for (int i = 0; i < rows; i++) {
+            Job j = new Job(prefix + "-" + i, "true");
+            j.state = state;
+            j.priority = i % 10;
+            chunk.add(j);
+            if (chunk.size() == SEED_CHUNK) {
+                Storage.upsertBatch(chunk);
+                chunk.clear();
+            }
+        }
+        Storage.upsertBatch(chunk);
+    }
+
+    static void close(Path dir) throws IOException {
+        Storage.pool().close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.queuectl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Storage#fetchAndLockNextPending} with 1, 4 and 16 threads contending for the same queue.
+ * Every iteration starts from a full backlog, which is large enough that no claim comes back empty.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClaimBenchmark {
+    private static final int BACKLOG = 200_000;
+
+    private Path dir;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = BenchDb.open();
+        BenchDb.seed("claim", BACKLOG, "pending");
+    }
+
+    @Setup(Level.Iteration)
+    public void requeue() throws SQLException {
+        Storage.pool().write(pc -> pc.prepare("UPDATE jobs SET state='pending' WHERE state='processing'").executeUpdate());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchDb.close(dir);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Models.Job claim1() {
+        return Storage.fetchAndLockNextPending();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Models.Job claim4() {
+        return Storage.fetchAndLockNextPending();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Models.Job claim16() {
+        return Storage.fetchAndLockNextPending();
+    }
+}
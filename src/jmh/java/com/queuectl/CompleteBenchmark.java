@@ -0,0 +1,113 @@
+package com.queuectl;
+
+import com.queuectl.Models.Job;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The terminal writes of an attempt: {@link Storage#completeAttempt} for a success, a failure
+ * that is retried and one that is dead-lettered, and {@link Storage#moveToDlq}. The
+ * {@code Threads(8)} pair compares one transaction per completion with the group-commit writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompleteBenchmark {
+    private Path dir;
+    private static final AtomicLong NEXT = new AtomicLong();
+    private String candidate;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = BenchDb.open();
+    }
+
+    /**
+     * moveToDlq and completeAttempt consume their row, so each call gets a fresh one in
+     * processing; the insert is not timed.
+     */
+    @Setup(Level.Invocation)
+    public void nextCandidate() {
+        candidate = processingRow("candidate-");
+    }
+
+    /** Each contending thread completes a row of its own, as workers do. */
+    @State(Scope.Thread)
+    public static class ThreadCandidate {
+        String id;
+
+        @Setup(Level.Invocation)
+        public void next() {
+            id = processingRow("contended-");
+        }
+    }
+
+    /** A job as a claim leaves it; upsert does not write lease columns, so its owner is null. */
+    private static String processingRow(String prefix) {
+        String id = prefix + NEXT.getAndIncrement();
+        Job j = new Job(id, "false");
+        j.state = "processing";
+        Storage.upsert(j);
+        return id;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchDb.close(dir);
+    }
+
+    @Benchmark
+    public String completeAttemptSuccess() {
+        return Storage.completeAttempt(new Storage.Attempt(candidate, null, 1, 0, 5L, null, 0));
+    }
+
+    @Benchmark
+    public void moveToDlq() {
+        Storage.moveToDlq(candidate);
+    }
+
+    @Benchmark
+    public String completeAttemptRetry() {
+        return Storage.completeAttempt(new Storage.Attempt(candidate, null, 1, 1, 5L, null, System.currentTimeMillis() + 60_000));
+    }
+
+    /** The candidate has the default max_retries of 3, so attempt 3 exhausts it. */
+    @Benchmark
+    public String completeAttemptToDlq() {
+        return Storage.completeAttempt(new Storage.Attempt(candidate, null, 3, 1, 5L, null, 0));
+    }
+
+    /** The same completion committed in a transaction of its own on the pooled writer. */
+    @Benchmark
+    @Threads(8)
+    public String completeAttemptOwnTransactionContended(ThreadCandidate row) throws SQLException {
+        Storage.Attempt a = new Storage.Attempt(row.id, null, 1, 0, 5L, null, 0);
+        return Storage.pool().write(pc -> Storage.completeAttempt(pc, a));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String completeAttemptContended(ThreadCandidate row) {
+        return Storage.completeAttempt(new Storage.Attempt(row.id, null, 1, 0, 5L, null, 0));
+    }
+}
@@ -0,0 +1,50 @@
+package com.queuectl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/** {@link Storage#counts()} against queues of 10k and 1M jobs spread over the non-terminal states. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CountsBenchmark {
+    @Param({"10000", "1000000"})
+    public int rows;
+
+    private Path dir;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = BenchDb.open();
+        BenchDb.seed("pending", rows / 2, "pending");
+        BenchDb.seed("completed", rows / 4, "completed");
+        BenchDb.seed("failed", rows - rows / 2 - rows / 4, "failed");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchDb.close(dir);
+    }
+
+    @Benchmark
+    public Storage.Counts counts() {
+        return Storage.counts();
+    }
+}
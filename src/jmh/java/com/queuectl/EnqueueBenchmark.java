@@ -0,0 +1,45 @@
+package com.queuectl;
+
+import com.queuectl.Models.Job;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/** {@link Storage#upsert} of a new job per call. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EnqueueBenchmark {
+    private Path dir;
+    private long next;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = BenchDb.open();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchDb.close(dir);
+    }
+
+    @Benchmark
+    public void upsert() {
+        Storage.upsert(new Job("enqueue-" + next++, "true"));
+    }
+}
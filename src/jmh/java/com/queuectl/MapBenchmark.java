@@ -0,0 +1,73 @@
+package com.queuectl;
+
+import com.queuectl.Models.Job;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Row decoding in {@link Storage#map}. {@code selectRow} reads the same fully populated row without
+ * decoding it, so the difference between the two is the cost of map itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MapBenchmark {
+    private static final String SQL = "SELECT * FROM jobs WHERE id=?";
+
+    private Path dir;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = BenchDb.open();
+        Job j = new Job("map-0", "echo decode");
+        j.state = "processing";
+        Storage.upsert(j);
+        Storage.completeAttempt(new Storage.Attempt("map-0", null, 1, 0, 12L, "job_logs/map-0.log", 0));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchDb.close(dir);
+    }
+
+    @Benchmark
+    public boolean selectRow() throws SQLException {
+        return Storage.pool().read(pc -> {
+            PreparedStatement ps = pc.prepare(SQL);
+            ps.setString(1, "map-0");
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        });
+    }
+
+    @Benchmark
+    public Job selectAndMapRow() throws SQLException {
+        return Storage.pool().read(pc -> {
+            PreparedStatement ps = pc.prepare(SQL);
+            ps.setString(1, "map-0");
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? Storage.map(rs) : null;
+            }
+        });
+    }
+}
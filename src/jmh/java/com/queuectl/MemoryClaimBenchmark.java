@@ -0,0 +1,63 @@
+package com.queuectl;
+
+import com.queuectl.Models.Job;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MemoryJobStore#fetchAndLockBatch} under the same 1/4/16-thread contention as
+ * {@link ClaimBenchmark}, for comparison with the SQLite claim. Each iteration gets a fresh store
+ * with a full backlog.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoryClaimBenchmark {
+    private static final int BACKLOG = 2_000_000;
+
+    private MemoryJobStore store;
+
+    @Setup(Level.Iteration)
+    public void seed() {
+        store = new MemoryJobStore();
+        for (int i = 0; i < BACKLOG; i++) {
+            Job j = new Job("claim-" + i, "true");
+            j.priority = i % 10;
+            store.upsert(j);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<Job> claim1() {
+        return store.fetchAndLockBatch(1, "bench", 60, null);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<Job> claim4() {
+        return store.fetchAndLockBatch(1, "bench", 60, null);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public List<Job> claim16() {
+        return store.fetchAndLockBatch(1, "bench", 60, null);
+    }
+}
@@ -0,0 +1,99 @@
+package com.queuectl;
+
+import com.queuectl.ConnectionPool.PooledConnection;
+import com.queuectl.Models.Job;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The pooled storage paths against the open-connection-per-call pattern they replaced, for
+ * {@link Storage#getJob} and a successful completion. Both completion variants run the same
+ * fenced UPDATE; the unpooled one opens a connection and prepares the statement on every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+    private static final AtomicLong NEXT = new AtomicLong();
+
+    private Path dir;
+    private String candidate;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = BenchDb.open();
+        Storage.upsert(new Job("bench-job", "true"));
+    }
+
+    /** Completion consumes its row, so each call gets a fresh one in processing; the insert is not timed. */
+    @Setup(Level.Invocation)
+    public void nextCandidate() {
+        candidate = "storage-" + NEXT.getAndIncrement();
+        Job j = new Job(candidate, "true");
+        j.state = "processing";
+        Storage.upsert(j);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchDb.close(dir);
+    }
+
+    @Benchmark
+    public Job getJobPooled() {
+        return Storage.getJob("bench-job");
+    }
+
+    @Benchmark
+    public Job getJobUnpooled() throws SQLException {
+        try (Connection c = Storage.getConn();
+             PreparedStatement ps = c.prepareStatement("SELECT * FROM jobs WHERE id=?")) {
+            ps.setString(1, "bench-job");
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? Storage.map(rs) : null;
+            }
+        }
+    }
+
+    @Benchmark
+    public String completePooled() throws SQLException {
+        Storage.Attempt a = success(candidate);
+        return Storage.pool().write(pc -> Storage.completeAttempt(pc, a));
+    }
+
+    @Benchmark
+    public String completeUnpooled() throws SQLException {
+        PooledConnection pc = new PooledConnection(Storage.getConn());
+        try {
+            return Storage.completeAttempt(pc, success(candidate));
+        } finally {
+            pc.close();
+        }
+    }
+
+    private static Storage.Attempt success(String id) {
+        return new Storage.Attempt(id, null, 1, 0, 5L, null, 0L);
+    }
+}
@@ -0,0 +1,204 @@
+package com.queuectl;
+
+import com.queuectl.Models.Job;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * End-to-end load run behind {@code queuectl bench}: enqueues a weighted mix of job kinds under a
+ * unique id prefix, waits for real workers to drain them, and reduces the stored timestamps to
+ * throughput and latency percentiles. Worker lifecycle is left to the caller. With the memory
+ * engine installed ({@code --in-process}) rows are read from {@link Storage#store()} instead.
+ */
+public final class Bench {
+    public static final String[] KINDS = {"noop", "sleep", "fail", "timeout"};
+    private static final int ENQUEUE_CHUNK = 1000;
+    private static final long POLL_MS = 500;
+    private static final int TIMEOUT_SECONDS = 1;
+
+    private final int jobs;
+    private final Map<String, Integer> mix;
+    private final long sleepMs;
+    private final int maxRetries;
+    private final String prefix = "bench-" + System.currentTimeMillis() + "-";
+
+    public Bench(int jobs, Map<String, Integer> mix, long sleepMs, int maxRetries) {
+        this.jobs = jobs;
+        this.mix = mix;
+        this.sleepMs = sleepMs;
+        this.maxRetries = maxRetries;
+    }
+
+    /** Parses {@code noop=70,sleep=20,fail=5,timeout=5}; kinds left out get weight 0. */
+    public static Map<String, Integer> parseMix(String spec) {
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (String kind : KINDS) mix.put(kind, 0);
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split("=", 2);
+            if (kv.length != 2 || !mix.containsKey(kv[0])) {
+                throw new IllegalArgumentException("Bad mix entry '" + part + "'; expected kind=weight with kind in " + Arrays.toString(KINDS));
+            }
+            int weight = Integer.parseInt(kv[1].trim());
+            if (weight < 0) throw new IllegalArgumentException("Negative weight for " + kv[0]);
+            mix.put(kv[0], weight);
+        }
+        if (mix.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("Mix has no positive weights");
+        }
+        return mix;
+    }
+
+    public String prefix() {
+        return prefix;
+    }
+
+    /** Enqueues the mix in batched transactions and returns the achieved rows/sec. */
+    public double enqueue() {
+        QueueManager qm = new QueueManager();
+        Random random = new Random(42);
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        long start = System.nanoTime();
+        List<Job> chunk = new ArrayList<>(ENQUEUE_CHUNK);
+        for (int i = 0; i < jobs; i++) {
+            chunk.add(job(i, pick(random.nextInt(total))));
+            if (chunk.size() == ENQUEUE_CHUNK) {
+                qm.enqueueAll(chunk);
+                chunk.clear();
+            }
+        }
+        qm.enqueueAll(chunk);
+        return jobs / Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+    }
+
+    private String pick(int roll) {
+        for (Map.Entry<String, Integer> e : mix.entrySet()) {
+            roll -= e.getValue();
+            if (roll < 0) return e.getKey();
+        }
+        throw new IllegalStateException("unreachable");
+    }
+
+    private Job job(int i, String kind) {
+        String sleep = String.format(Locale.ROOT, "%.3f", sleepMs / 1000.0);
+        Job j = new Job(prefix + kind + "-" + i, switch (kind) {
+            case "noop" -> "true";
+            case "sleep" -> "sleep " + sleep;
+            case "fail" -> "exit 1";
+            default -> "sleep " + (TIMEOUT_SECONDS + 4);
+        });
+        j.max_retries = maxRetries;
+        if (kind.equals("timeout")) j.timeout_seconds = TIMEOUT_SECONDS;
+        return j;
+    }
+
+    /** Blocks until every bench job is completed or dead-lettered, or {@code maxWaitMillis} passes. */
+    public List<Job> await(long maxWaitMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + maxWaitMillis;
+        while (true) {
+            List<Job> rows = rows();
+            if (rows.stream().allMatch(Bench::finished) || System.currentTimeMillis() >= deadline) return rows;
+            Thread.sleep(POLL_MS);
+        }
+    }
+
+    private List<Job> rows() {
+        JobStore store = Storage.store();
+        if (!(store instanceof MemoryJobStore)) return Storage.findByIdPrefix(prefix);
+        List<Job> rows = new ArrayList<>();
+        for (Job j : store.listJobs(null)) if (j.id.startsWith(prefix)) rows.add(j);
+        for (Job j : store.listDlq()) if (j.id.startsWith(prefix)) rows.add(j);
+        return rows;
+    }
+
+    private static boolean finished(Job j) {
+        return "completed".equals(j.state) || "dead".equals(j.state);
+    }
+
+    /**
+     * Builds the report. Enqueue-to-complete is {@code last_finished_at - created_at}
+     * ({@code updated_at} when a row never finished an attempt); enqueue-to-start uses the start of
+     * the final attempt, {@code last_finished_at - last_duration_ms}, so for retried jobs it includes
+     * the earlier attempts and their backoff.
+     */
+    public Map<String, Object> report(List<Job> rows, Instant started, double enqueueRate, int workers, int threads) {
+        Map<String, List<Long>> toStart = new LinkedHashMap<>();
+        Map<String, List<Long>> toComplete = new LinkedHashMap<>();
+        Map<String, Integer> outcomes = new LinkedHashMap<>();
+        outcomes.put("completed", 0);
+        outcomes.put("dead", 0);
+        outcomes.put("unfinished", 0);
+        long lastFinish = started.toEpochMilli();
+        for (Job j : rows) {
+            String kind = j.id.substring(prefix.length(), j.id.lastIndexOf('-'));
+            outcomes.merge(finished(j) ? j.state : "unfinished", 1, Integer::sum);
+            if (!finished(j)) continue;
+            long finish = j.last_finished_at != null ? j.last_finished_at : j.updated_at;
+            lastFinish = Math.max(lastFinish, finish);
+            long complete = finish - j.created_at;
+            add(toComplete, kind, complete);
+            if (j.last_duration_ms != null) add(toStart, kind, complete - j.last_duration_ms);
+        }
+        double wall = Math.max(1e-3, (lastFinish - started.toEpochMilli()) / 1000.0);
+        int done = outcomes.get("completed") + outcomes.get("dead");
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("started_at", Models.ISO.format(started));
+        report.put("jobs", jobs);
+        report.put("mix", mix);
+        report.put("sleep_ms", sleepMs);
+        report.put("max_retries", maxRetries);
+        report.put("workers", workers);
+        report.put("threads", threads);
+        report.put("enqueue_rows_per_sec", Math.round(enqueueRate));
+        report.put("wall_seconds", wall);
+        report.put("throughput_jobs_per_sec", done / wall);
+        report.put("outcomes", outcomes);
+        report.put("enqueue_to_start_ms", summary(all(toStart)));
+        report.put("enqueue_to_complete_ms", summary(all(toComplete)));
+        Map<String, Object> byKind = new LinkedHashMap<>();
+        for (String kind : mix.keySet()) {
+            if (!toComplete.containsKey(kind)) continue;
+            Map<String, Object> k = new LinkedHashMap<>();
+            k.put("enqueue_to_start_ms", summary(toStart.getOrDefault(kind, List.of())));
+            k.put("enqueue_to_complete_ms", summary(toComplete.get(kind)));
+            byKind.put(kind, k);
+        }
+        report.put("by_kind", byKind);
+        return report;
+    }
+
+    private static void add(Map<String, List<Long>> samples, String kind, long value) {
+        samples.computeIfAbsent(kind, k -> new ArrayList<>()).add(value);
+    }
+
+    private static List<Long> all(Map<String, List<Long>> samples) {
+        List<Long> out = new ArrayList<>();
+        samples.values().forEach(out::addAll);
+        return out;
+    }
+
+    private static Map<String, Object> summary(List<Long> samples) {
+        long[] sorted = samples.stream().mapToLong(Long::longValue).sorted().toArray();
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("count", sorted.length);
+        if (sorted.length == 0) return s;
+        s.put("p50", percentile(sorted, 50));
+        s.put("p95", percentile(sorted, 95));
+        s.put("p99", percentile(sorted, 99));
+        s.put("max", sorted[sorted.length - 1]);
+        return s;
+    }
+
+    /** Nearest-rank percentile. */
+    static long percentile(long[] sorted, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,139 @@
+package com.queuectl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * One shared poller behind the dashboard's {@code /api/events} stream. It reads the counters and
+ * the rows changed since its last pass, then fans the resulting SSE frames out to every
+ * subscriber, so N open tabs cost one database poll rather than N full snapshots. While nobody
+ * is subscribed it does not touch the database.
+ *
+ * <p>Changes are read from each shard's job_changes log, keeping one seq mark per shard. If a
+ * mark falls behind the pruned end of the log, every subscriber is reset and reloads its snapshot.
+ */
+final class ChangeFeed {
+    static final long POLL_MS = 1_000;
+    private static final int MAX_ROWS_PER_POLL = 500;
+    private static final int MAX_BACKLOG = 1_000;
+
+    private final ObjectMapper json = new ObjectMapper();
+    private final List<BlockingQueue<String>> subscribers = new CopyOnWriteArrayList<>();
+    /** Last change seen per shard; null while nobody is subscribed. */
+    private long[] marks;
+    private String lastStatus;
+    private Thread poller;
+
+    /** Registers a subscriber; the first frame it receives is the current status. */
+    synchronized BlockingQueue<String> subscribe() {
+        BlockingQueue<String> q = new LinkedBlockingQueue<>(MAX_BACKLOG);
+        if (lastStatus != null) q.offer(frame("status", lastStatus));
+        if (marks == null) marks = currentMarks();
+        subscribers.add(q);
+        if (poller == null) {
+            poller = new Thread(this::loop, "queuectl-change-feed");
+            poller.setDaemon(true);
+            poller.start();
+        }
+        return q;
+    }
+
+    void unsubscribe(BlockingQueue<String> q) {
+        subscribers.remove(q);
+    }
+
+    private void loop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (subscribers.isEmpty()) {
+                    // Nobody is watching: skip the poll and forget the marks, since a new
+                    // subscriber loads its own snapshot before listening for deltas.
+                    synchronized (this) {
+                        marks = null;
+                        lastStatus = null;
+                    }
+                } else {
+                    poll();
+                }
+                Thread.sleep(POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                System.err.println("Change feed poll failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void poll() {
+        String status = write(new QueueManager().status());
+        synchronized (this) {
+            if (!status.equals(lastStatus)) {
+                lastStatus = status;
+                broadcast(frame("status", status));
+            }
+        }
+        long[] m;
+        synchronized (this) {
+            if (marks == null) marks = currentMarks();
+            m = marks;
+        }
+        for (int i = 0; i < m.length; i++) {
+            long mark = m[i];
+            Storage.Changes changes = Storage.onShard(i, () -> Storage.changesSince(mark, MAX_ROWS_PER_POLL));
+            if (changes.truncated) {
+                synchronized (this) {
+                    resetAll();
+                    marks = null;
+                }
+                return;
+            }
+            for (Models.Job j : changes.jobs) broadcast(frame("job", write(j)));
+            for (Models.Job j : changes.dlq) broadcast(frame("dlq", write(j)));
+            for (String id : changes.removed) broadcast(frame("removed", write(id)));
+            m[i] = changes.seq;
+        }
+    }
+
+    private static long[] currentMarks() {
+        long[] m = new long[Storage.shardCount()];
+        for (int i = 0; i < m.length; i++) m[i] = Storage.onShard(i, Storage::lastChange);
+        return m;
+    }
+
+    /** Drops every subscriber with a reset frame; their EventSource reconnects and reloads. */
+    private void resetAll() {
+        for (BlockingQueue<String> q : subscribers) {
+            subscribers.remove(q);
+            q.clear();
+            q.offer(frame("reset", "{}"));
+        }
+    }
+
+    private void broadcast(String frame) {
+        for (BlockingQueue<String> q : subscribers) {
+            // A subscriber this far behind is stalled; drop it and let EventSource reconnect.
+            if (!q.offer(frame)) {
+                subscribers.remove(q);
+                q.clear();
+                q.offer(frame("reset", "{}"));
+            }
+        }
+    }
+
+    private String write(Object value) {
+        try {
+            return json.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static String frame(String event, String data) {
+        return "event: " + event + "\ndata: " + data + "\n\n";
+    }
+}
@@ -1,5 +1,6 @@
 package com.queuectl;
 
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.queuectl.Models.Job;
@@ -10,9 +11,16 @@ import picocli.CommandLine.Parameters;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 @Command(name = "queuectl", mixinStandardHelpOptions = true, description = "CLI job queue controller", subcommands = {
         Cli.Enqueue.class,
@@ -23,6 +31,9 @@ import java.util.List;
         Cli.ConfigCmd.class,
         Cli.Logs.class,
         Cli.Metrics.class,
+        Cli.StatsCmd.class,
+        Cli.BenchCmd.class,
+        Cli.GcCmd.class,
         Cli.DashboardCmd.class
 })
 public class Cli implements Runnable {
@@ -32,35 +43,79 @@ public class Cli implements Runnable {
 
     public static void main(String[] args) { System.exit(new CommandLine(new Cli()).execute(args)); }
 
-    @Command(name = "enqueue", description = "Enqueue a new job with JSON payload")
+    @Command(name = "enqueue", description = "Enqueue a new job with JSON payload, or many from a JSONL file")
     static class Enqueue implements Runnable {
-        @Parameters(index = "0", paramLabel = "JOB_JSON", description = "Job JSON e.g. {\"id\":\"job1\",\"command\":\"echo hi\"}")
+        private static final int BULK_CHUNK = 1000;
+
+        @Parameters(index = "0", arity = "0..1", paramLabel = "JOB_JSON", description = "Job JSON e.g. {\"id\":\"job1\",\"command\":\"echo hi\"}")
         String jobJson;
+        @Option(names = "--file", paramLabel = "PATH", description = "Bulk enqueue newline-delimited job JSON from PATH ('-' for stdin)")
+        String file;
+
         public void run() {
+            if (file != null) {
+                runBulk();
+                return;
+            }
+            if (jobJson == null) { System.err.println("JOB_JSON or --file is required"); System.exit(1); }
             try {
-                ObjectMapper m = new ObjectMapper();
-                ObjectNode n = (ObjectNode) m.readTree(jobJson);
-                if (!n.has("id") || !n.has("command")) throw new IllegalArgumentException("id and command required");
-                Job j = new Job(n.get("id").asText(), n.get("command").asText());
-                if (n.has("attempts")) j.attempts = n.get("attempts").asInt();
-                if (n.has("state")) j.state = n.get("state").asText();
-                if (n.has("priority")) j.priority = n.get("priority").asInt();
-                if (n.has("run_at")) j.run_at = n.get("run_at").asText();
-                if (n.has("delay_seconds")) {
-                    long delay = n.get("delay_seconds").asLong();
-                    j.run_at = Models.ISO.format(Instant.now().plusSeconds(delay));
-                }
-                if (n.has("timeout_seconds")) j.timeout_seconds = n.get("timeout_seconds").asInt();
-                // Default max_retries from config when not provided in payload
-                if (n.has("max_retries")) {
-                    j.max_retries = n.get("max_retries").asInt();
-                } else {
-                    j.max_retries = Config.load().get("max_retries").asInt(3);
-                }
+                ObjectNode n = (ObjectNode) JSON.readTree(jobJson);
+                Job j = toJob(n, Config.load());
                 QueueManager qm = new QueueManager();
                 qm.enqueue(j);
                 System.out.println("Enqueued job " + j.id);
             } catch (Exception e) { System.err.println("Invalid JSON: " + e.getMessage()); System.exit(1);}        }
+
+        /** Streams the input with Jackson's parser and inserts it in chunked, batched transactions. */
+        private void runBulk() {
+            ObjectNode cfg = Config.load();
+            QueueManager qm = new QueueManager();
+            long start = System.nanoTime();
+            long total = 0;
+            try (Reader in = file.equals("-")
+                    ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                    : Files.newBufferedReader(Path.of(file), StandardCharsets.UTF_8);
+                 MappingIterator<ObjectNode> it = JSON.readerFor(ObjectNode.class).readValues(in)) {
+                List<Job> chunk = new ArrayList<>(BULK_CHUNK);
+                while (it.hasNextValue()) {
+                    chunk.add(toJob(it.nextValue(), cfg));
+                    if (chunk.size() == BULK_CHUNK) {
+                        qm.enqueueAll(chunk);
+                        total += chunk.size();
+                        chunk.clear();
+                    }
+                }
+                qm.enqueueAll(chunk);
+                total += chunk.size();
+            } catch (Exception e) {
+                System.err.println("Bulk enqueue stopped after " + total + " job(s): " + e.getMessage());
+                System.exit(1);
+            }
+            double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+            System.out.printf("Enqueued %d job(s) in %.2fs (%.0f rows/sec)%n", total, seconds, total / seconds);
+        }
+
+        static Job toJob(ObjectNode n, ObjectNode cfg) {
+            if (!n.has("id") || !n.has("command")) throw new IllegalArgumentException("id and command required");
+            Job j = new Job(n.get("id").asText(), n.get("command").asText());
+            if (n.has("attempts")) j.attempts = n.get("attempts").asInt();
+            if (n.has("state")) j.state = n.get("state").asText();
+            if (n.has("priority")) j.priority = n.get("priority").asInt();
+            if (n.has("queue")) j.queue = n.get("queue").asText();
+            if (n.has("run_at")) j.run_at = Models.parseIso(n.get("run_at").asText());
+            if (n.has("delay_seconds")) {
+                long delay = n.get("delay_seconds").asLong();
+                j.run_at = System.currentTimeMillis() + delay * 1000L;
+            }
+            if (n.has("timeout_seconds")) j.timeout_seconds = n.get("timeout_seconds").asInt();
+            // Default max_retries from config when not provided in payload
+            if (n.has("max_retries")) {
+                j.max_retries = n.get("max_retries").asInt();
+            } else {
+                j.max_retries = cfg.get("max_retries").asInt(3);
+            }
+            return j;
+        }
     }
 
     @Command(name = "worker", description = "Manage workers", subcommands = {WorkerCmd.Start.class, WorkerCmd.Run.class, WorkerCmd.Stop.class})
@@ -71,30 +126,48 @@ public class Cli implements Runnable {
         static class Start implements Runnable {
             @Option(names = "--count", defaultValue = "1")
             int count;
+            @Option(names = "--threads", defaultValue = "1", description = "Concurrent jobs per worker process")
+            int threads;
             public void run() {
+                spawn(count, threads, null);
+                System.out.println("Started " + count + " worker(s)");
+            }
+
+            /**
+             * Starts {@code count} worker processes. With a {@code stopToken} they also stop on
+             * {@link Worker#stopToken(String)}, so the caller can stop them without touching others.
+             */
+            static List<Process> spawn(int count, int threads, String stopToken) {
                 // Remove STOP if exists
-                if (!Worker.RUNTIME_DIR.exists()) Worker.RUNTIME_DIR.mkdirs();
+                if (!Worker.SIGNAL_DIR.exists()) Worker.SIGNAL_DIR.mkdirs();
                 if (Worker.STOP_FILE.exists()) Worker.STOP_FILE.delete();
                 String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
                 String cp = System.getProperty("java.class.path");
+                List<String> cmd = new ArrayList<>(List.of(java, "-cp", cp, Cli.class.getName(), "worker", "run", "--threads", Integer.toString(threads)));
+                if (stopToken != null) cmd.addAll(List.of("--stop-token", stopToken));
+                List<Process> started = new ArrayList<>();
                 for (int i = 0; i < count; i++) {
                     try {
-                        new ProcessBuilder(java, "-cp", cp, Cli.class.getName(), "worker", "run").inheritIO().start();
+                        started.add(new ProcessBuilder(cmd).inheritIO().start());
                     } catch (Exception e) { System.err.println("Failed to start worker: " + e.getMessage()); }
                 }
-                System.out.println("Started " + count + " worker(s)");
+                return started;
             }
         }
 
         @Command(name = "run", description = "Run worker (internal)")
         static class Run implements Runnable {
-            public void run() { new Worker().run(); }
+            @Option(names = "--threads", defaultValue = "1", description = "Concurrent jobs in this worker process")
+            int threads;
+            @Option(names = "--stop-token", description = "Internal: also stop when the matching per-run stop file appears")
+            String stopToken;
+            public void run() { new Worker(threads, stopToken == null ? null : Worker.stopToken(stopToken)).run(); }
         }
 
         @Command(name = "stop", description = "Stop workers gracefully")
         static class Stop implements Runnable {
             public void run() {
-                if (!Worker.RUNTIME_DIR.exists()) Worker.RUNTIME_DIR.mkdirs();
+                if (!Worker.SIGNAL_DIR.exists()) Worker.SIGNAL_DIR.mkdirs();
                 try { Worker.STOP_FILE.createNewFile(); } catch (Exception ignored) {}
                 System.out.println("Signalled workers to stop. They will exit after current job.");
             }
@@ -113,9 +186,27 @@ public class Cli implements Runnable {
     static class ListCmd implements Runnable {
         @Option(names = "--state", required = false)
         String state;
+        @Option(names = "--limit", defaultValue = "0", description = "Page size; pages are printed as {jobs, next_cursor}")
+        int limit;
+        @Option(names = "--cursor", description = "next_cursor value from the previous page")
+        String cursor;
+        @Option(names = "--since", description = "Only jobs updated at or after this ISO-8601 timestamp")
+        String since;
         public void run() {
-            List<Job> jobs = new QueueManager().list(state);
-            printJson(jobs);
+            Storage.JobQuery query = new Storage.JobQuery();
+            query.state = state;
+            query.limit = limit;
+            query.cursor = cursor;
+            try {
+                if (since != null) query.since = Models.parseIso(since);
+                new QueueManager().streamJobs(query, System.out);
+                System.out.println();
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
     }
 
@@ -131,12 +222,48 @@ public class Cli implements Runnable {
             }
         }
 
-        @Command(name = "retry", description = "Retry DLQ job by id")
+        @Command(name = "retry", description = "Retry a DLQ job by id, or every DLQ job matching --all/--filter/--older-than")
         static class Retry implements Runnable {
-            @Parameters(index = "0") String jobId;
+            @Parameters(index = "0", arity = "0..1") String jobId;
+            @Option(names = "--all", description = "Replay the whole DLQ")
+            boolean all;
+            @Option(names = "--filter", description = "exit_code=N or id_prefix=P; repeatable, all must match")
+            List<String> filters = new ArrayList<>();
+            @Option(names = "--older-than", description = "Only jobs dead-lettered longer ago than this (e.g. 30m, 12h, 7d)")
+            String olderThan;
+            @Option(names = "--rate", defaultValue = "0", description = "Max jobs replayed per second (0 = unlimited)")
+            double rate;
+            @Option(names = "--batch-size", defaultValue = "500", description = "Jobs moved per transaction")
+            int batchSize;
             public void run() {
-                boolean ok = Dlq.retry(jobId);
-                if (ok) System.out.println("Retried DLQ job " + jobId); else { System.err.println("Job not found in DLQ"); System.exit(1);}            }
+                boolean bulk = all || !filters.isEmpty() || olderThan != null;
+                if ((jobId == null) == !bulk || batchSize < 1) {
+                    System.err.println("Give either a job id or --all/--filter/--older-than");
+                    System.exit(1);
+                }
+                if (jobId != null) {
+                    boolean ok = Dlq.retry(jobId);
+                    if (ok) System.out.println("Retried DLQ job " + jobId); else { System.err.println("Job not found in DLQ"); System.exit(1);}
+                    return;
+                }
+                try {
+                    Storage.DlqFilter filter = new Storage.DlqFilter();
+                    for (String f : filters) {
+                        String[] kv = f.split("=", 2);
+                        if (kv.length == 2 && kv[0].equals("exit_code")) filter.exitCode = Integer.parseInt(kv[1].trim());
+                        else if (kv.length == 2 && kv[0].equals("id_prefix")) filter.idPrefix = kv[1];
+                        else throw new IllegalArgumentException("Unknown filter '" + f + "'; expected exit_code=N or id_prefix=P");
+                    }
+                    if (olderThan != null) filter.updatedBefore = System.currentTimeMillis() - Dlq.parseDuration(olderThan);
+                    int n = Dlq.retryMatching(filter, batchSize, rate);
+                    System.out.println("Retried " + n + " DLQ job(s)");
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                    System.exit(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
         }
     }
 
@@ -159,27 +286,181 @@ public class Cli implements Runnable {
 
     @Command(name = "logs", description = "Show the latest captured output log for a job")
     static class Logs implements Runnable {
+        private static final long FOLLOW_WAIT_MS = 1_000;
+
         @Parameters(index = "0") String jobId;
+        @Option(names = "--tail", description = "Only the last N lines")
+        Integer tail;
+        @Option(names = "--range", description = "Byte range START-END (inclusive), START- or -LAST")
+        String range;
+        @Option(names = "--follow", description = "Keep printing output as it is written until the job completes or is dead-lettered")
+        boolean follow;
 
         public void run() {
-            String log = Storage.loadJobLog(jobId);
-            if (log == null) {
+            String path = Storage.jobLogPath(jobId);
+            if (path == null && !follow) {
                 System.err.println("No log available for job " + jobId);
                 System.exit(1);
             }
-            System.out.println(log);
+            try {
+                long pos = 0;
+                if (path != null) {
+                    String missing = JobLogs.missing(path);
+                    if (missing != null) {
+                        System.out.println(missing);
+                        return;
+                    }
+                    long size = JobLogs.size(path);
+                    long[] span = range != null ? JobLogs.parseRange(range, size) : new long[]{tail != null ? JobLogs.tailOffset(path, tail) : 0, size};
+                    if (span != null) JobLogs.copy(path, span[0], span[1] - span[0], System.out);
+                    System.out.flush();
+                    pos = size;
+                }
+                if (follow) {
+                    try (LogFollower follower = new LogFollower(jobId, path, pos)) {
+                        while (follower.poll(System.out, FOLLOW_WAIT_MS)) {}
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
     @Command(name = "metrics", description = "Display aggregate execution metrics")
     static class Metrics implements Runnable {
         public void run() {
-            Storage.Counts counts = Storage.counts();
+            Storage.Counts counts = Storage.store().counts();
             counts.active_workers = Worker.activeWorkers();
             printJson(counts);
         }
     }
 
+    @Command(name = "stats", description = "Maintain the incrementally updated queue counters", subcommands = {StatsCmd.Check.class})
+    static class StatsCmd implements Runnable {
+        public void run() { CommandLine.usage(this, System.out); }
+
+        @Command(name = "check", description = "Recompute counters from the job tables and compare")
+        static class Check implements Runnable {
+            @Option(names = "--repair", description = "Rewrite the counters when they have drifted")
+            boolean repair;
+
+            public void run() {
+                Storage.StatsCheck check = Storage.checkStats(repair);
+                printJson(check);
+                if (!check.consistent && !check.repaired) System.exit(1);
+            }
+        }
+    }
+
+    @Command(name = "gc", description = "Archive completed jobs past retention, delete their logs and compact queue.db")
+    static class GcCmd implements Runnable {
+        @Option(names = "--vacuum", description = "First rewrite the file with VACUUM, switching it to incremental auto-vacuum (takes the write lock)")
+        boolean vacuum;
+        public void run() {
+            if (vacuum) Storage.vacuum();
+            printJson(Gc.run(Config.load()));
+        }
+    }
+
+    @Command(name = "bench", description = "Load the queue with a job mix and report throughput and latency percentiles")
+    static class BenchCmd implements Runnable {
+        @Option(names = "--jobs", defaultValue = "1000", description = "Number of jobs to enqueue")
+        int jobs;
+        @Option(names = "--mix", defaultValue = "noop=70,sleep=20,fail=5,timeout=5", description = "Weighted job kinds: noop, sleep, fail, timeout")
+        String mix;
+        @Option(names = "--sleep-ms", defaultValue = "100", description = "Duration of 'sleep' jobs")
+        long sleepMs;
+        @Option(names = "--max-retries", defaultValue = "1", description = "max_retries for every bench job")
+        int maxRetries;
+        @Option(names = "--workers", defaultValue = "1", description = "Worker processes to start (0 = use already running workers)")
+        int workers;
+        @Option(names = "--threads", defaultValue = "4", description = "Concurrent jobs per started worker")
+        int threads;
+        @Option(names = "--max-wait", defaultValue = "600", description = "Seconds to wait for the jobs to finish")
+        long maxWait;
+        @Option(names = "--out", paramLabel = "PATH", description = "Write the JSON report to PATH as well as stdout")
+        Path out;
+        @Option(names = "--in-process", description = "Run one worker with workers x threads threads inside this process against the in-memory engine; the database is not touched")
+        boolean inProcess;
+
+        public void run() {
+            Bench bench;
+            try {
+                bench = new Bench(jobs, Bench.parseMix(mix), sleepMs, maxRetries);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+                return;
+            }
+            if (inProcess && workers == 0) {
+                System.err.println("--in-process needs --workers of at least 1");
+                System.exit(1);
+            }
+            if (inProcess) Storage.useStore(new MemoryJobStore());
+            if (!inProcess && workers == 0 && Worker.activeWorkers() == 0) {
+                System.err.println("--workers 0 needs running workers; start some with 'queuectl worker start'");
+                System.exit(1);
+            }
+            Instant started = Instant.now();
+            double enqueueRate = bench.enqueue();
+            System.err.printf("Enqueued %d job(s) with prefix %s (%.0f rows/sec)%n", jobs, bench.prefix(), enqueueRate);
+            Worker embedded = inProcess ? new Worker(workers * threads) : null;
+            Thread embeddedThread = null;
+            // Only the workers this run starts obey its stop token; workers already running carry on.
+            String stopToken = bench.prefix().substring(0, bench.prefix().length() - 1);
+            List<Process> spawned = List.of();
+            if (embedded != null) {
+                embeddedThread = new Thread(embedded::run, "queuectl-bench-worker");
+                embeddedThread.start();
+            } else if (workers > 0) {
+                spawned = WorkerCmd.Start.spawn(workers, threads, stopToken);
+                System.err.println("Started " + spawned.size() + " bench worker(s)");
+            }
+            try {
+                List<Job> rows = bench.await(maxWait * 1000);
+                Map<String, Object> report = bench.report(rows, started, enqueueRate, workers, threads);
+                if (out != null) Files.writeString(out, JSON.writerWithDefaultPrettyPrinter().writeValueAsString(report));
+                printJson(report);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                System.err.println("Failed to write report: " + e.getMessage());
+            } finally {
+                if (embedded != null) {
+                    embedded.stop();
+                    try {
+                        embeddedThread.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                } else if (!spawned.isEmpty()) {
+                    stopWorkers(spawned, Worker.stopToken(stopToken));
+                }
+            }
+        }
+
+        /** Signals the bench's own workers and waits for them to finish their in-flight jobs and exit. */
+        private static void stopWorkers(List<Process> started, File token) {
+            try {
+                token.createNewFile();
+                for (Process p : started) p.waitFor();
+            } catch (IOException e) {
+                System.err.println("Failed to stop bench workers: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                token.delete();
+            }
+            System.err.println("Stopped " + started.size() + " bench worker(s)");
+        }
+    }
+
     @Command(name = "dashboard", description = "Minimal web dashboard", subcommands = {DashboardCmd.Start.class, DashboardCmd.Run.class, DashboardCmd.Stop.class})
     static class DashboardCmd implements Runnable {
         public void run() { CommandLine.usage(this, System.out); }
@@ -1,10 +1,13 @@
 package com.queuectl;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 
 public class Config {
@@ -18,6 +21,18 @@ public class Config {
         defaults.put("default_timeout_seconds", 0);
         defaults.put("dashboard_port", 8080);
         defaults.put("log_directory", "job_logs");
+        defaults.put("claim_batch_size", 1);
+        defaults.put("lease_seconds", 60);
+        defaults.put("retention_completed_seconds", 604800);
+        defaults.put("retention_completed_max", 0);
+        defaults.put("gc_interval_seconds", 300);
+        defaults.put("log_max_bytes", 1048576);
+        defaults.put("log_retention_seconds", 604800);
+        defaults.put("commit_max_delay_ms", 2);
+        defaults.put("synchronous", "FULL");
+        defaults.put("shard_count", 1);
+        defaults.put("shard_claim", "round_robin");
+        defaults.putObject("queues");
         if (!CONFIG_FILE.exists()) {
             save(defaults);
             return defaults;
@@ -29,6 +44,18 @@ public class Config {
         if (!current.has("default_timeout_seconds")) current.put("default_timeout_seconds", 0);
         if (!current.has("dashboard_port")) current.put("dashboard_port", 8080);
         if (!current.has("log_directory")) current.put("log_directory", "job_logs");
+        if (!current.has("claim_batch_size")) current.put("claim_batch_size", 1);
+        if (!current.has("lease_seconds")) current.put("lease_seconds", 60);
+        if (!current.has("retention_completed_seconds")) current.put("retention_completed_seconds", 604800);
+        if (!current.has("retention_completed_max")) current.put("retention_completed_max", 0);
+        if (!current.has("gc_interval_seconds")) current.put("gc_interval_seconds", 300);
+        if (!current.has("log_max_bytes")) current.put("log_max_bytes", 1048576);
+        if (!current.has("log_retention_seconds")) current.put("log_retention_seconds", 604800);
+        if (!current.has("commit_max_delay_ms")) current.put("commit_max_delay_ms", 2);
+        if (!current.has("synchronous")) current.put("synchronous", "FULL");
+        if (!current.has("shard_count")) current.put("shard_count", 1);
+        if (!current.has("shard_claim")) current.put("shard_claim", "round_robin");
+        if (!current.has("queues")) current.putObject("queues");
             return current;
         } catch (IOException e) {
             return defaults;
@@ -45,13 +72,26 @@ public class Config {
 
     public static ObjectNode set(String key, String value) {
         ObjectNode cfg = load();
+        if (key.startsWith("queues.")) return setQueue(cfg, key, value);
         if (!Objects.equals(key, "max_retries") &&
             !Objects.equals(key, "backoff_base") &&
             !Objects.equals(key, "default_timeout_seconds") &&
             !Objects.equals(key, "dashboard_port") &&
-            !Objects.equals(key, "log_directory")) {
+            !Objects.equals(key, "log_directory") &&
+            !Objects.equals(key, "claim_batch_size") &&
+            !Objects.equals(key, "lease_seconds") &&
+            !Objects.equals(key, "retention_completed_seconds") &&
+            !Objects.equals(key, "retention_completed_max") &&
+            !Objects.equals(key, "gc_interval_seconds") &&
+            !Objects.equals(key, "log_max_bytes") &&
+            !Objects.equals(key, "log_retention_seconds") &&
+            !Objects.equals(key, "commit_max_delay_ms") &&
+            !Objects.equals(key, "synchronous") &&
+            !Objects.equals(key, "shard_count") &&
+            !Objects.equals(key, "shard_claim")) {
             throw new IllegalArgumentException("Unknown config key: " + key);
         }
+        if (key.equals("shard_count")) checkShardCount(cfg, value);
         try {
             int intVal = Integer.parseInt(value);
             cfg.put(key, intVal);
@@ -61,6 +101,74 @@ public class Config {
         save(cfg);
         return cfg;
     }
+
+    /**
+     * Refuses a shard_count that would leave unfinished jobs in shard files no store reads any more,
+     * or that would split a limited default queue (see {@link #checkDefaultLimit}).
+     */
+    private static void checkShardCount(ObjectNode cfg, String value) {
+        int count;
+        try {
+            count = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("shard_count must be an integer");
+        }
+        if (count < 1) throw new IllegalArgumentException("shard_count is out of range: " + value);
+        checkDefaultLimit(count, cfg.path("queues").path(Models.DEFAULT_QUEUE).path("max_concurrency").asInt(0));
+        Map<String, Integer> stranded = Storage.strandedShards(count);
+        if (!stranded.isEmpty()) {
+            throw new IllegalArgumentException("shard_count " + count + " would strand unfinished jobs in " + stranded +
+                "; let workers drain them (and clear their DLQ) first");
+        }
+    }
+
+    /** {@code queues.<name>.max_concurrency} or {@code queues.<name>.weight}, kept under {@code queues}. */
+    private static ObjectNode setQueue(ObjectNode cfg, String key, String value) {
+        int dot = key.lastIndexOf('.');
+        String queue = key.substring("queues.".length(), Math.max(dot, "queues.".length()));
+        String field = key.substring(dot + 1);
+        if (queue.isEmpty() || (!field.equals("max_concurrency") && !field.equals("weight"))) {
+            throw new IllegalArgumentException("Unknown config key: " + key);
+        }
+        int intVal;
+        try {
+            intVal = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " must be an integer");
+        }
+        if (intVal < (field.equals("weight") ? 1 : 0)) throw new IllegalArgumentException(key + " is out of range: " + value);
+        if (queue.equals(Models.DEFAULT_QUEUE) && field.equals("max_concurrency")) checkDefaultLimit(cfg.path("shard_count").asInt(1), intVal);
+        objectAt(objectAt(cfg, "queues"), queue).put(field, intVal);
+        save(cfg);
+        return cfg;
+    }
+
+    /**
+     * The default queue is spread over every shard and each shard counts its own processing jobs,
+     * so a limit on it would hold per shard, not overall. Named queues live in one shard each.
+     */
+    private static void checkDefaultLimit(int shardCount, int maxConcurrency) {
+        if (shardCount > 1 && maxConcurrency > 0) {
+            throw new IllegalArgumentException("queues." + Models.DEFAULT_QUEUE + ".max_concurrency cannot be enforced with shard_count " +
+                shardCount + ": the default queue is spread over every shard; use a named queue instead");
+        }
+    }
+
+    private static ObjectNode objectAt(ObjectNode parent, String name) {
+        JsonNode node = parent.get(name);
+        return node instanceof ObjectNode ? (ObjectNode) node : parent.putObject(name);
+    }
+
+    /** Per-queue weight and concurrency limit from the {@code queues} object. */
+    static Map<String, QueueScheduler.Policy> queuePolicies(ObjectNode cfg) {
+        Map<String, QueueScheduler.Policy> out = new HashMap<>();
+        JsonNode queues = cfg.path("queues");
+        queues.fieldNames().forEachRemaining(name -> {
+            JsonNode q = queues.get(name);
+            out.put(name, new QueueScheduler.Policy(q.path("max_concurrency").asInt(0), q.path("weight").asInt(1)));
+        });
+        return out;
+    }
 }
 
 
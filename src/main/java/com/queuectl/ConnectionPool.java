@@ -0,0 +1,228 @@
+package com.queuectl;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Long-lived SQLite connections for one database file: a single writer (SQLite only ever
+ * admits one) and a few query-only readers, which WAL lets run alongside it. Connections are
+ * configured once and keep their prepared statements, so a call pays only for its own SQL.
+ */
+public final class ConnectionPool implements AutoCloseable {
+    private static final int READERS = 4;
+    private static final List<String> SYNCHRONOUS_MODES = List.of("OFF", "NORMAL", "FULL", "EXTRA");
+
+    private final String url;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final BlockingQueue<PooledConnection> idleReaders = new ArrayBlockingQueue<>(READERS);
+    private final List<PooledConnection> opened = new ArrayList<>();
+    private PooledConnection writer;
+    private int readersOpened;
+    private boolean closed;
+    private volatile String synchronous;
+
+    public ConnectionPool(String dbPath) {
+        this.url = "jdbc:sqlite:" + dbPath + "?busy_timeout=5000";
+    }
+
+    public String url() {
+        return url;
+    }
+
+    /** Opens a standalone connection with the standard PRAGMAs; the caller owns and closes it. */
+    public Connection open() throws SQLException {
+        Connection c = DriverManager.getConnection(url);
+        try (Statement s = c.createStatement()) {
+            // Only takes effect on a new, empty file; older files switch via Storage.vacuum().
+            s.execute("PRAGMA auto_vacuum=INCREMENTAL;");
+            s.execute("PRAGMA journal_mode=WAL;");
+            s.execute("PRAGMA foreign_keys=ON;");
+            s.execute("PRAGMA busy_timeout=5000;");
+            if (synchronous != null) s.execute("PRAGMA synchronous=" + synchronous + ";");
+        }
+        return c;
+    }
+
+    /**
+     * Sets {@code PRAGMA synchronous} on the writer and on connections opened from now on.
+     * In WAL mode NORMAL fsyncs only at checkpoints, so a commit survives a process crash but
+     * the last few may be lost on power failure; FULL fsyncs the WAL on every commit.
+     */
+    public void setSynchronous(String mode) throws SQLException {
+        String m = mode.trim().toUpperCase(Locale.ROOT);
+        if (!SYNCHRONOUS_MODES.contains(m)) throw new IllegalArgumentException("Unknown synchronous mode: " + mode);
+        writeLock.lock();
+        try {
+            synchronous = m;
+            if (writer != null) {
+                try (Statement s = writer.conn.createStatement()) {
+                    s.execute("PRAGMA synchronous=" + m + ";");
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Runs {@code work} on the writer connection in autocommit mode. */
+    public <T> T write(SqlWork<T> work) throws SQLException {
+        writeLock.lock();
+        try {
+            return work.apply(writer());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Runs {@code work} on the writer connection inside one transaction. */
+    public <T> T writeTx(SqlWork<T> work) throws SQLException {
+        writeLock.lock();
+        try {
+            PooledConnection c = writer();
+            c.conn.setAutoCommit(false);
+            try {
+                T result = work.apply(c);
+                c.conn.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                c.conn.rollback();
+                throw e;
+            } finally {
+                c.conn.setAutoCommit(true);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * As {@link #writeTx}, but opens the transaction with BEGIN IMMEDIATE, taking the database
+     * write lock before {@code work} reads anything. For work that reads and then writes based on
+     * what it read, which would otherwise fail with SQLITE_BUSY if another process committed in
+     * between.
+     */
+    public <T> T writeImmediate(SqlWork<T> work) throws SQLException {
+        writeLock.lock();
+        try {
+            PooledConnection c = writer();
+            try (Statement s = c.conn.createStatement()) {
+                s.execute("BEGIN IMMEDIATE");
+            }
+            try {
+                T result = work.apply(c);
+                try (Statement s = c.conn.createStatement()) {
+                    s.execute("COMMIT");
+                }
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                try (Statement s = c.conn.createStatement()) {
+                    s.execute("ROLLBACK");
+                }
+                throw e;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Runs {@code work} on a pooled query-only connection. */
+    public <T> T read(SqlWork<T> work) throws SQLException {
+        PooledConnection c = borrowReader();
+        try {
+            return work.apply(c);
+        } finally {
+            idleReaders.offer(c);
+        }
+    }
+
+    private PooledConnection writer() throws SQLException {
+        if (writer == null) writer = track(new PooledConnection(open()));
+        return writer;
+    }
+
+    private PooledConnection borrowReader() throws SQLException {
+        PooledConnection c = idleReaders.poll();
+        if (c != null) return c;
+        synchronized (this) {
+            if (closed) throw new SQLException("Connection pool is closed");
+            if (readersOpened < READERS) {
+                readersOpened++;
+                Connection conn = open();
+                try (Statement s = conn.createStatement()) {
+                    s.execute("PRAGMA query_only=ON;");
+                }
+                return track(new PooledConnection(conn));
+            }
+        }
+        try {
+            return idleReaders.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a reader connection", e);
+        }
+    }
+
+    private synchronized PooledConnection track(PooledConnection c) {
+        opened.add(c);
+        return c;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (PooledConnection c : opened) c.close();
+        opened.clear();
+        idleReaders.clear();
+        writer = null;
+    }
+
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T apply(PooledConnection c) throws SQLException;
+    }
+
+    /** A connection plus its prepared statements, keyed by SQL text. */
+    public static final class PooledConnection {
+        private final Connection conn;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        PooledConnection(Connection conn) {
+            this.conn = conn;
+        }
+
+        public Connection connection() {
+            return conn;
+        }
+
+        /** Returns the cached statement for {@code sql} with its parameters cleared. Do not close it. */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement ps = statements.get(sql);
+            if (ps == null) {
+                ps = conn.prepareStatement(sql);
+                statements.put(sql, ps);
+            } else {
+                ps.clearParameters();
+            }
+            return ps;
+        }
+
+        void close() {
+            for (PreparedStatement ps : statements.values()) {
+                try { ps.close(); } catch (SQLException ignored) {}
+            }
+            statements.clear();
+            try { conn.close(); } catch (SQLException ignored) {}
+        }
+    }
+}
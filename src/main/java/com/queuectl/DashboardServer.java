@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -11,11 +12,16 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public final class DashboardServer {
     private static final ObjectMapper JSON = new ObjectMapper();
     private static final File PID_FILE = new File(Worker.RUNTIME_DIR, "dashboard.pid");
+    private static final long HEARTBEAT_MS = 15_000;
+    private static final ChangeFeed FEED = new ChangeFeed();
 
     private DashboardServer() {}
 
@@ -29,19 +35,15 @@ public final class DashboardServer {
             HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
             server.createContext("/", exchange -> respond(exchange, 200, "text/html; charset=utf-8", DASHBOARD_HTML.getBytes(StandardCharsets.UTF_8)));
             server.createContext("/api/status", exchange -> json(exchange, new QueueManager().status()));
-            server.createContext("/api/jobs", exchange -> json(exchange, new QueueManager().list(null)));
+            server.createContext("/api/jobs", DashboardServer::jobs);
             server.createContext("/api/dlq", exchange -> json(exchange, Dlq.list()));
-            server.createContext("/api/logs", exchange -> {
-                String query = exchange.getRequestURI().getQuery();
-                String jobId = Query.queryParam(query, "id");
-                if (jobId == null || jobId.isBlank()) {
-                    respond(exchange, 400, "text/plain", "Missing id parameter".getBytes(StandardCharsets.UTF_8));
-                    return;
-                }
-                String log = Storage.loadJobLog(jobId);
-                if (log == null) log = "No log available for job " + jobId;
-                respond(exchange, 200, "text/plain; charset=utf-8", log.getBytes(StandardCharsets.UTF_8));
+            server.createContext("/api/events", DashboardServer::events);
+            server.createContext("/metrics", exchange -> {
+                String body = Telemetry.render(Storage.store().counts(), Worker.activeWorkers(), Telemetry.collect());
+                respond(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", body.getBytes(StandardCharsets.UTF_8));
             });
+            server.createContext("/api/logs", DashboardServer::logs);
+            server.createContext("/api/logs/stream", DashboardServer::logStream);
             server.setExecutor(Executors.newCachedThreadPool());
             server.start();
             writePid();
@@ -62,6 +64,225 @@ public final class DashboardServer {
         }
     }
 
+    /** Streams /api/jobs with chunked encoding; accepts state, limit, cursor and since parameters. */
+    private static void jobs(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        Storage.JobQuery q = new Storage.JobQuery();
+        q.state = Query.queryParam(query, "state");
+        q.cursor = Query.queryParam(query, "cursor");
+        String since = Query.queryParam(query, "since");
+        String limit = Query.queryParam(query, "limit");
+        try {
+            q.limit = limit != null ? Integer.parseInt(limit) : 0;
+            if (q.cursor != null) Storage.decodeCursor(q.cursor);
+            if (since != null) q.since = Models.parseIso(since);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            respond(exchange, 400, "text/plain", "Invalid limit, cursor or since parameter".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream os = exchange.getResponseBody()) {
+            new QueueManager().streamJobs(q, os);
+        }
+    }
+
+    /**
+     * Serves a job log straight from disk, honouring a single-range {@code Range: bytes=...}
+     * header or a {@code tail=N} lines parameter, so a huge log never has to fit in memory.
+     */
+    private static void logs(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        String jobId = Query.queryParam(query, "id");
+        if (jobId == null || jobId.isBlank()) {
+            respond(exchange, 400, "text/plain", "Missing id parameter".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        String path = Storage.jobLogPath(jobId);
+        String missing = path == null ? "No log available for job " + jobId : JobLogs.missing(path);
+        if (missing != null) {
+            respond(exchange, 200, "text/plain; charset=utf-8", missing.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        long size = JobLogs.size(path);
+        long[] span = {0, size};
+        int status = 200;
+        String tail = Query.queryParam(query, "tail");
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        try {
+            if (tail != null) {
+                span[0] = JobLogs.tailOffset(path, Integer.parseInt(tail));
+            } else if (range != null) {
+                span = JobLogs.parseRange(range, size);
+                if (span == null) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                    exchange.sendResponseHeaders(416, -1);
+                    exchange.close();
+                    return;
+                }
+                status = 206;
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + span[0] + "-" + (span[1] - 1) + "/" + size);
+            }
+        } catch (IllegalArgumentException e) {
+            // Malformed Range headers are ignored, as HTTP allows; a bad tail is the caller's error.
+            if (tail != null) {
+                respond(exchange, 400, "text/plain", "Invalid tail parameter".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+        }
+        long length = span[1] - span[0];
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, length > 0 ? length : -1);
+        try (OutputStream os = exchange.getResponseBody()) {
+            if (length > 0) JobLogs.copy(path, span[0], length, os);
+        }
+    }
+
+    /**
+     * Server-Sent Events stream of a job's output while it runs: {@code log} events carry whole
+     * lines (one {@code data:} field each), starting with the last {@code tail} lines (default
+     * 100), and a final {@code end} event carries the job's state once it is finished.
+     */
+    private static void logStream(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        String jobId = Query.queryParam(query, "id");
+        String tailParam = Query.queryParam(query, "tail");
+        int tail;
+        try {
+            tail = tailParam != null ? Integer.parseInt(tailParam) : 100;
+        } catch (NumberFormatException e) {
+            tail = -1;
+        }
+        if (jobId == null || jobId.isBlank() || tail < 0) {
+            respond(exchange, 400, "text/plain", "Missing id or invalid tail parameter".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        String path = Storage.jobLogPath(jobId);
+        try (OutputStream os = exchange.getResponseBody()) {
+            SseLines lines = new SseLines(os);
+            long pos = 0;
+            if (path != null && JobLogs.missing(path) == null) {
+                long from = JobLogs.tailOffset(path, tail);
+                pos = JobLogs.size(path);
+                JobLogs.copy(path, from, Math.max(0, pos - from), lines);
+            }
+            lines.flush();
+            long idleSince = System.currentTimeMillis();
+            try (LogFollower follower = new LogFollower(jobId, path, pos)) {
+                while (follower.poll(lines, HEARTBEAT_MS)) {
+                    if (lines.sent()) {
+                        idleSince = System.currentTimeMillis();
+                    } else if (System.currentTimeMillis() - idleSince >= HEARTBEAT_MS) {
+                        os.write(": keepalive\n\n".getBytes(StandardCharsets.UTF_8));
+                        os.flush();
+                        idleSince = System.currentTimeMillis();
+                    }
+                }
+            }
+            lines.finish();
+            Models.Job job = Storage.store().getJob(jobId);
+            String end = "{\"state\":" + (job == null ? "null" : JSON.writeValueAsString(job.state)) + "}";
+            os.write(ChangeFeed.frame("end", end).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ignored) {
+            // Client disconnected.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Turns raw log bytes into SSE {@code log} frames of complete lines. Splitting on the newline
+     * byte never cuts a UTF-8 sequence; a partial last line waits for its newline (or for
+     * {@link #finish}), and one longer than the line buffer is sent in pieces.
+     */
+    private static final class SseLines extends OutputStream {
+        private static final byte[] LOG_EVENT = "event: log\n".getBytes(StandardCharsets.UTF_8);
+        private static final byte[] DATA_PREFIX = "data: ".getBytes(StandardCharsets.UTF_8);
+        private static final int MAX_FRAME = 64 * 1024;
+        private final OutputStream out;
+        private final byte[] line = new byte[16 * 1024];
+        private final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        private int len;
+        private boolean sent;
+
+        SseLines(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (b == '\n' || len == line.length) endLine();
+            if (b != '\n') line[len++] = (byte) b;
+        }
+
+        private void endLine() throws IOException {
+            frame.write(DATA_PREFIX);
+            frame.write(line, 0, len);
+            frame.write('\n');
+            len = 0;
+            if (frame.size() >= MAX_FRAME) sendFrame();
+        }
+
+        private void sendFrame() throws IOException {
+            if (frame.size() == 0) return;
+            out.write(LOG_EVENT);
+            frame.writeTo(out);
+            out.write('\n');
+            frame.reset();
+            sent = true;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            sendFrame();
+            out.flush();
+        }
+
+        /** Sends a trailing partial line; called once the job has finished. */
+        void finish() throws IOException {
+            if (len > 0) endLine();
+            flush();
+        }
+
+        /** True if a frame went out since the last call. */
+        boolean sent() {
+            boolean s = sent;
+            sent = false;
+            return s;
+        }
+    }
+
+    /**
+     * Server-Sent Events stream of status, job and dlq deltas from the shared {@link ChangeFeed}.
+     * Comment lines keep idle connections open; the handler returns once the client goes away.
+     */
+    private static void events(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        BlockingQueue<String> queue = FEED.subscribe();
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(("retry: " + ChangeFeed.POLL_MS * 2 + "\n\n").getBytes(StandardCharsets.UTF_8));
+            os.flush();
+            while (true) {
+                String frame = queue.poll(HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+                os.write((frame != null ? frame : ": keepalive\n\n").getBytes(StandardCharsets.UTF_8));
+                os.flush();
+                if (frame != null && frame.startsWith("event: reset")) break;
+            }
+        } catch (IOException ignored) {
+            // Client disconnected.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            FEED.unsubscribe(queue);
+        }
+    }
+
     private static void json(HttpExchange exchange, Object payload) throws IOException {
         byte[] body = JSON.writerWithDefaultPrettyPrinter().writeValueAsBytes(payload);
         respond(exchange, 200, "application/json; charset=utf-8", body);
@@ -109,18 +330,39 @@ public final class DashboardServer {
                 <pre id=\"dlq\">Loading...</pre>
               </section>
               <script>
-                async function refresh() {
-                  const [status, jobs, dlq] = await Promise.all([
+                // Rows shown per table; the least recently changed fall off once a table is full.
+                const MAX_ROWS = 200;
+                const jobs = new Map();
+                const dlq = new Map();
+                const put = (map, j) => {
+                  map.delete(j.id);
+                  map.set(j.id, j);
+                  if (map.size > MAX_ROWS) map.delete(map.keys().next().value);
+                };
+                const show = (id, value) => document.getElementById(id).textContent = JSON.stringify(value, null, 2);
+                const render = () => { show('jobs', [...jobs.values()]); show('dlq', [...dlq.values()]); };
+
+                async function snapshot() {
+                  const [status, page, dead] = await Promise.all([
                     fetch('/api/status').then(r => r.json()),
-                    fetch('/api/jobs').then(r => r.json()),
-                    fetch('/api/dlq').then(r => r.json())
+                    fetch('/api/jobs?limit=' + MAX_ROWS).then(r => r.json()),
+                    fetch('/api/jobs?state=dead&limit=' + MAX_ROWS).then(r => r.json())
                   ]);
-                  document.getElementById('status').textContent = JSON.stringify(status, null, 2);
-                  document.getElementById('jobs').textContent = JSON.stringify(jobs, null, 2);
-                  document.getElementById('dlq').textContent = JSON.stringify(dlq, null, 2);
+                  jobs.clear();
+                  dlq.clear();
+                  page.jobs.forEach(j => jobs.set(j.id, j));
+                  dead.jobs.forEach(j => dlq.set(j.id, j));
+                  show('status', status);
+                  render();
                 }
-                refresh();
-                setInterval(refresh, 3000);
+
+                // Load one snapshot, then apply pushed deltas; reload it whenever the stream reconnects.
+                const events = new EventSource('/api/events');
+                events.onopen = snapshot;
+                events.addEventListener('status', e => show('status', JSON.parse(e.data)));
+                events.addEventListener('job', e => { const j = JSON.parse(e.data); put(jobs, j); dlq.delete(j.id); render(); });
+                events.addEventListener('dlq', e => { const j = JSON.parse(e.data); put(dlq, j); jobs.delete(j.id); render(); });
+                events.addEventListener('removed', e => { const id = JSON.parse(e.data); jobs.delete(id); dlq.delete(id); render(); });
               </script>
             </body>
             </html>
@@ -5,8 +5,57 @@ import com.queuectl.Models.Job;
 import java.util.List;
 
 public class Dlq {
-    public static List<Job> list() { return Storage.listDlq(); }
-    public static boolean retry(String id) { return Storage.retryFromDlq(id); }
-}
+    static final int REPLAY_BATCH = 500;
+
+    public static List<Job> list() { return Storage.store().listDlq(); }
+    public static boolean retry(String id) {
+        boolean ok = Storage.store().retryFromDlq(id);
+        if (ok) Wakeup.signal();
+        return ok;
+    }
 
+    /**
+     * Replays every DLQ job matching {@code filter} in transactions of {@code batchSize} rows.
+     * With {@code ratePerSecond > 0} it sleeps between batches so the replay never outpaces that
+     * rate, leaving workers room for fresh jobs. Workers are woken after each batch.
+     *
+     * @return the number of jobs moved back to the queue
+     */
+    public static int retryMatching(Storage.DlqFilter filter, int batchSize, double ratePerSecond) throws InterruptedException {
+        if (ratePerSecond > 0) batchSize = (int) Math.max(1, Math.min(batchSize, Math.ceil(ratePerSecond)));
+        long start = System.nanoTime();
+        int total = 0;
+        int moved;
+        do {
+            moved = Storage.store().retryDlqBatch(filter, batchSize);
+            total += moved;
+            if (moved > 0) Wakeup.signal();
+            if (ratePerSecond > 0 && moved == batchSize) {
+                long dueNanos = (long) (total / ratePerSecond * 1e9);
+                long aheadMillis = (dueNanos - (System.nanoTime() - start)) / 1_000_000;
+                if (aheadMillis > 0) Thread.sleep(aheadMillis);
+            }
+        } while (moved == batchSize);
+        return total;
+    }
 
+    /** Parses {@code 90}, {@code 90s}, {@code 30m}, {@code 12h} or {@code 7d} to milliseconds. */
+    public static long parseDuration(String text) {
+        String t = text.trim();
+        long unit = switch (t.isEmpty() ? ' ' : t.charAt(t.length() - 1)) {
+            case 's' -> 1_000L;
+            case 'm' -> 60_000L;
+            case 'h' -> 3_600_000L;
+            case 'd' -> 86_400_000L;
+            default -> 0L;
+        };
+        String digits = unit == 0 ? t : t.substring(0, t.length() - 1);
+        try {
+            long n = Long.parseLong(digits);
+            if (n < 0) throw new NumberFormatException();
+            return n * (unit == 0 ? 1_000L : unit);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid duration '" + text + "'; expected e.g. 90s, 30m, 12h or 7d");
+        }
+    }
+}
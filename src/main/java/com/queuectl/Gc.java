@@ -0,0 +1,120 @@
+package com.queuectl;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Compactor for the hot jobs table: archives completed jobs past the configured retention in
+ * small batches, deletes their log files, then truncates the WAL and returns free pages to the
+ * filesystem. Run by {@code queuectl gc} and periodically by workers.
+ */
+public class Gc {
+    static final int BATCH = 500;
+    private static final int VACUUM_PAGES = 2_000;
+    /** Change log entries kept for the dashboard feed; a feed further behind resyncs. */
+    static final long CHANGE_LOG_KEEP = 100_000;
+
+    public static class Result {
+        public int archived;
+        public int logs_deleted;
+        public int logs_pruned;
+        public int changes_pruned;
+        public Storage.Maintenance maintenance;
+    }
+
+    public static Result run(ObjectNode cfg) {
+        Result result = new Result();
+        Path logDir = Path.of(cfg.get("log_directory").asText("job_logs"));
+        // Each shard is its own database with its own retention cutoff and free pages.
+        for (int shard = 0; shard < Storage.shardCount(); shard++) {
+            Storage.onShard(shard, () -> {
+                compactShard(cfg, result);
+                return null;
+            });
+        }
+        long logRetentionSeconds = cfg.get("log_retention_seconds").asLong(0);
+        if (logRetentionSeconds > 0) {
+            result.logs_pruned = JobLogs.prune(logDir.toFile(), System.currentTimeMillis() - logRetentionSeconds * 1000L);
+        }
+        return result;
+    }
+
+    private static void compactShard(ObjectNode cfg, Result result) {
+        Long cutoff = cutoff(cfg);
+        if (cutoff != null) {
+            Storage.Archived batch;
+            do {
+                batch = Storage.archiveCompleted(cutoff, BATCH);
+                result.archived += batch.ids.size();
+                result.logs_deleted += deleteLogs(batch);
+            } while (batch.ids.size() == BATCH);
+        }
+        result.changes_pruned += Storage.pruneChanges(CHANGE_LOG_KEEP);
+        Storage.Maintenance m = Storage.checkpointAndVacuum(VACUUM_PAGES);
+        if (result.maintenance == null) {
+            result.maintenance = m;
+        } else {
+            result.maintenance.freelist_pages_before += m.freelist_pages_before;
+            result.maintenance.freelist_pages_after += m.freelist_pages_after;
+            result.maintenance.checkpoint_busy |= m.checkpoint_busy;
+        }
+    }
+
+    /**
+     * Archive everything completed before this instant (epoch ms): the stricter of the age rule
+     * ({@code retention_completed_seconds}) and the count rule ({@code retention_completed_max}).
+     * A value of 0 disables a rule; null means there is nothing to archive.
+     */
+    static Long cutoff(ObjectNode cfg) {
+        long maxAgeSeconds = cfg.get("retention_completed_seconds").asLong(0);
+        int maxCount = cfg.get("retention_completed_max").asInt(0);
+        Long cutoff = maxAgeSeconds > 0 ? System.currentTimeMillis() - maxAgeSeconds * 1000L : null;
+        if (maxCount > 0) {
+            Long byCount = Storage.completedCutoffForCount(maxCount);
+            if (byCount != null && (cutoff == null || byCount > cutoff)) cutoff = byCount;
+        }
+        return cutoff;
+    }
+
+    /**
+     * Deletes the logs recorded on the archived rows, and no others: file names are sanitized
+     * ids, which two jobs can share. A segment goes once it is sealed and no row on any shard
+     * points into it. Logs of earlier attempts are not on the row and are left to
+     * {@code log_retention_seconds}.
+     */
+    private static int deleteLogs(Storage.Archived batch) {
+        int deleted = 0;
+        Set<String> segments = new HashSet<>();
+        for (String path : batch.logPaths) {
+            String segment = JobLogs.segmentOf(path);
+            if (segment != null) {
+                segments.add(segment);
+                continue;
+            }
+            try {
+                if (Files.deleteIfExists(Path.of(path))) deleted++;
+            } catch (IOException | RuntimeException ignored) {}
+        }
+        for (String segment : segments) {
+            if (!JobLogs.segmentSealed(new File(segment)) || segmentInUse(segment)) continue;
+            try {
+                if (Files.deleteIfExists(Path.of(segment))) deleted++;
+            } catch (IOException | RuntimeException ignored) {}
+        }
+        return deleted;
+    }
+
+    /** A worker packs logs of jobs from every shard into one segment, so each shard is asked. */
+    private static boolean segmentInUse(String segment) {
+        for (int shard = 0; shard < Storage.shardCount(); shard++) {
+            if (Storage.onShard(shard, () -> Storage.logSegmentInUse(segment))) return true;
+        }
+        return false;
+    }
+}
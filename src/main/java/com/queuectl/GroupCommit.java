@@ -0,0 +1,158 @@
+package com.queuectl;
+
+import com.queuectl.ConnectionPool.PooledConnection;
+import com.queuectl.ConnectionPool.SqlWork;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single writer thread that commits state transitions from every thread in the process in
+ * micro-batches. A batch opens with the first queued transition and takes whatever else arrives
+ * within {@code maxDelayMillis} (up to {@link #MAX_BATCH}), then commits once, so concurrent
+ * completions share one fsync. The writer only lingers while the previous batch held more than
+ * one transition, so a lone caller never pays the delay. Each transition runs under its own
+ * savepoint: one that fails is rolled back and fails only its own future.
+ */
+final class GroupCommit implements AutoCloseable {
+    static final int CAPACITY = 1_024;
+    static final int MAX_BATCH = 256;
+    private static final long IDLE_POLL_MS = 200;
+
+    private final ConnectionPool pool;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Pending<?>> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private final Thread thread;
+    private volatile boolean closed;
+    private int lastBatchSize;
+
+    GroupCommit(ConnectionPool pool, long maxDelayMillis) {
+        this.pool = pool;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelayMillis));
+        this.thread = new Thread(this::loop, "queuectl-commit");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues {@code work} for the next batch, blocking while the queue is full.
+     *
+     * @return completes with the work's result once its batch is committed
+     */
+    <T> CompletableFuture<T> submit(SqlWork<T> work) {
+        Pending<T> p = new Pending<>(work);
+        if (closed) return rejected(p);
+        try {
+            queue.put(p);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            p.future.completeExceptionally(e);
+            return p.future;
+        }
+        // Closed while we were queueing: unless the writer already took it, nobody will.
+        if (closed && queue.remove(p)) return rejected(p);
+        return p.future;
+    }
+
+    private void loop() {
+        List<Pending<?>> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            Pending<?> first;
+            try {
+                first = queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (first == null) {
+                if (closed) return;
+                continue;
+            }
+            batch.add(first);
+            long deadline = System.nanoTime() + (lastBatchSize > 1 ? maxDelayNanos : 0);
+            while (batch.size() < MAX_BATCH) {
+                Pending<?> next = queue.poll();
+                if (next == null) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || closed) break;
+                    try {
+                        next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    if (next == null) break;
+                }
+                batch.add(next);
+            }
+            commit(batch);
+            lastBatchSize = batch.size();
+            batch.clear();
+        }
+    }
+
+    private void commit(List<Pending<?>> batch) {
+        try {
+            pool.writeTx(pc -> {
+                for (Pending<?> p : batch) p.run(pc);
+                return null;
+            });
+        } catch (SQLException | RuntimeException e) {
+            for (Pending<?> p : batch) p.future.completeExceptionally(e);
+            return;
+        }
+        for (Pending<?> p : batch) p.complete();
+    }
+
+    private static <T> CompletableFuture<T> rejected(Pending<T> p) {
+        p.future.completeExceptionally(new IllegalStateException("Group commit writer is closed"));
+        return p.future;
+    }
+
+    /** Commits everything already queued, then stops the writer. */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Pending<?> p;
+        while ((p = queue.poll()) != null) rejected(p);
+    }
+
+    private static final class Pending<T> {
+        final SqlWork<T> work;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+        Exception error;
+
+        Pending(SqlWork<T> work) {
+            this.work = work;
+        }
+
+        void run(PooledConnection pc) throws SQLException {
+            Connection conn = pc.connection();
+            Savepoint sp = conn.setSavepoint();
+            try {
+                result = work.apply(pc);
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback(sp);
+                error = e;
+            } finally {
+                conn.releaseSavepoint(sp);
+            }
+        }
+
+        void complete() {
+            if (error != null) future.completeExceptionally(error);
+            else future.complete(result);
+        }
+    }
+}
@@ -0,0 +1,477 @@
+package com.queuectl;
+
+import com.queuectl.Models.Job;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Log sink for job attempts. Output is written through to a live {@code live/*.log} file, so it can
+ * be followed as it is produced. When the attempt ends the log is cut to {@code log_max_bytes}
+ * (the first and last halves, with a marker for what was cut) and gzipped: small logs are appended to a per-process segment file
+ * and referenced as {@code <segment>#<offset>+<length>}, larger ones become their own
+ * {@code .log.gz}. That reference is what lands in {@code last_output_path}, so the job row is
+ * the offset index and {@link #read} resolves every form, including plain logs from older
+ * releases.
+ */
+public class JobLogs {
+    static final long DEFAULT_MAX_BYTES = 1L << 20;
+    /** Compressed logs up to this size are packed into segments instead of getting a file. */
+    static final int PACK_MAX_BYTES = 64 * 1024;
+    static final long SEGMENT_MAX_BYTES = 64L << 20;
+    static final String SEGMENT_DIR = "segments";
+    static final String LIVE_DIR = "live";
+    private static final Pattern SEGMENT_REF = Pattern.compile("(.+)#(\\d+)\\+(\\d+)");
+    private static final String OMITTED = "\n... [queuectl: %d bytes omitted] ...\n";
+    private static final byte[] OMITTED_START = "\n... [queuectl: ".getBytes(StandardCharsets.UTF_8);
+
+    private final File dir;
+    private final long maxBytes;
+    private File segment;
+    private long segmentSeq;
+
+    /**
+     * @param maxBytes per-attempt cap on retained output; 0 keeps everything
+     */
+    public JobLogs(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Prefix the claim query turns into each job's live log path by appending
+     * {@code <rowid>-<attempt>.log}, so the path is on the job row from the moment it is claimed.
+     */
+    public String livePrefix() {
+        File live = new File(dir, LIVE_DIR);
+        if (!live.exists()) live.mkdirs();
+        return live.getAbsolutePath() + File.separator + System.currentTimeMillis() + "-";
+    }
+
+    /** Starts capturing one attempt into the live file recorded at claim time. */
+    public Capture open(Job job, int attempt) throws IOException {
+        File live = isLive(job.last_output_path) ? new File(job.last_output_path) : null;
+        if (live == null) {
+            File liveDir = new File(dir, LIVE_DIR);
+            if (!liveDir.exists()) liveDir.mkdirs();
+            live = new File(liveDir, System.currentTimeMillis() + "-" + Worker.logFilePrefix(job.id) + "-" + attempt + ".log");
+        }
+        return new Capture(live, job.id, attempt);
+    }
+
+    /** True for the uncompressed file of an attempt that is running or was cut short. */
+    static boolean isLive(String storedPath) {
+        if (storedPath == null || !storedPath.endsWith(".log")) return false;
+        File parent = new File(storedPath).getParentFile();
+        return parent != null && parent.getName().equals(LIVE_DIR);
+    }
+
+    /** Gzips a finished live log, cut to the cap, and returns the reference to store for it. */
+    private String store(File live, String jobId, int attempt) throws IOException {
+        if (!dir.exists()) dir.mkdirs();
+        File gz = new File(dir, Worker.logFilePrefix(jobId) + "-attempt-" + attempt + "-" + System.currentTimeMillis() + ".log.gz");
+        try (FileChannel in = FileChannel.open(live.toPath(), StandardOpenOption.READ);
+             OutputStream out = new GZIPOutputStream(new FileOutputStream(gz), 64 * 1024)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long size = in.size();
+            if (maxBytes <= 0 || size <= maxBytes) {
+                transfer(in, 0, size, target);
+            } else {
+                long head = maxBytes / 2;
+                long tail = maxBytes - head;
+                transfer(in, 0, head, target);
+                out.write(String.format(Locale.ROOT, OMITTED, size - head - tail).getBytes(StandardCharsets.UTF_8));
+                transfer(in, size - tail, tail, target);
+            }
+        }
+        Files.delete(live.toPath());
+        if (gz.length() > PACK_MAX_BYTES) return gz.getAbsolutePath();
+        byte[] bytes = Files.readAllBytes(gz.toPath());
+        String ref = append(bytes);
+        Files.delete(gz.toPath());
+        return ref;
+    }
+
+    private static void transfer(FileChannel in, long from, long length, WritableByteChannel target) throws IOException {
+        long done = 0;
+        while (done < length) {
+            long n = in.transferTo(from + done, length - done, target);
+            if (n <= 0) break;
+            done += n;
+        }
+    }
+
+    /**
+     * Where byte {@code liveOffset} of an attempt's live file ended up in its stored log. Up to
+     * the cut the two agree; past it the stored log is shorter by the omitted bytes less the
+     * marker, and a position inside the omitted part resumes at the marker. Lets a follower keep
+     * its place when the live file it was reading is replaced by the stored log.
+     */
+    static long storedOffset(String storedPath, long liveOffset) throws IOException {
+        if (!isSegmentRef(storedPath) && !storedPath.endsWith(".gz")) return liveOffset;
+        try (InputStream in = new BufferedInputStream(decoded(storedPath))) {
+            long pos = 0;
+            int matched = 0;
+            int b;
+            while ((b = in.read()) >= 0) {
+                pos++;
+                if (b == OMITTED_START[matched]) {
+                    matched++;
+                } else {
+                    matched = b == OMITTED_START[0] ? 1 : 0;
+                }
+                if (matched < OMITTED_START.length) continue;
+                long head = pos - OMITTED_START.length;
+                StringBuilder digits = new StringBuilder();
+                while ((b = in.read()) >= '0' && b <= '9') digits.append((char) b);
+                if (digits.length() == 0) return liveOffset;
+                long omitted = Long.parseLong(digits.toString());
+                int marker = String.format(Locale.ROOT, OMITTED, omitted).getBytes(StandardCharsets.UTF_8).length;
+                if (liveOffset <= head) return liveOffset;
+                if (liveOffset >= head + omitted) return liveOffset - omitted + marker;
+                return head;
+            }
+            return liveOffset;
+        }
+    }
+
+    /**
+     * Appends one gzip member to this process's current segment. Only this process writes the
+     * file, so the offset read before the write is where the member starts.
+     */
+    private synchronized String append(byte[] member) throws IOException {
+        if (segment == null || !segment.exists() || segment.length() >= SEGMENT_MAX_BYTES) {
+            File segDir = new File(dir, SEGMENT_DIR);
+            if (!segDir.exists()) segDir.mkdirs();
+            segment = new File(segDir, "seg-" + ProcessHandle.current().pid() + "-" + System.currentTimeMillis() + "-" + (++segmentSeq) + ".gzs");
+        }
+        try (FileChannel ch = FileChannel.open(segment.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long offset = ch.size();
+            ByteBuffer buf = ByteBuffer.wrap(member);
+            while (buf.hasRemaining()) ch.write(buf);
+            return segment.getAbsolutePath() + "#" + offset + "+" + member.length;
+        }
+    }
+
+    /** True when {@code storedPath} points into a segment rather than at a file of its own. */
+    static boolean isSegmentRef(String storedPath) {
+        return storedPath != null && SEGMENT_REF.matcher(storedPath).matches();
+    }
+
+    /** The segment file a packed log lives in, or null for any other stored path. */
+    static String segmentOf(String storedPath) {
+        Matcher m = SEGMENT_REF.matcher(storedPath);
+        return m.matches() ? m.group(1) : null;
+    }
+
+    /**
+     * True once no worker will append to the segment again: it has reached
+     * {@link #SEGMENT_MAX_BYTES} or the process named in its file name has exited. Until then a
+     * member may be written before the row that references it.
+     */
+    static boolean segmentSealed(File segment) {
+        if (segment.length() >= SEGMENT_MAX_BYTES) return true;
+        String[] parts = segment.getName().split("-");
+        try {
+            return parts.length < 2 || !ProcessHandle.of(Long.parseLong(parts[1])).map(ProcessHandle::isAlive).orElse(false);
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Why the stored log cannot be read, or null when it is there. A live file that does not
+     * exist is not missing but empty: its attempt was claimed and has not started writing, or
+     * has just been stored and the job row is about to say where.
+     */
+    public static String missing(String storedPath) {
+        Matcher m = SEGMENT_REF.matcher(storedPath);
+        if (m.matches()) return Files.exists(Path.of(m.group(1))) ? null : "Log segment missing at: " + m.group(1);
+        Path p = file(storedPath);
+        return Files.exists(p) || isLive(storedPath) ? null : "Log file missing at: " + p;
+    }
+
+    /**
+     * Decoded length of a stored log. For compressed logs this is the gzip trailer's size field,
+     * which is exact for anything under 4 GiB, i.e. for every log written with a cap.
+     */
+    public static long size(String storedPath) throws IOException {
+        Matcher m = SEGMENT_REF.matcher(storedPath);
+        if (m.matches()) {
+            return gzipSize(Path.of(m.group(1)), Long.parseLong(m.group(2)) + Long.parseLong(m.group(3)));
+        }
+        Path p = file(storedPath);
+        if (storedPath.endsWith(".gz")) return gzipSize(p, Files.size(p));
+        try {
+            return Files.size(p);
+        } catch (NoSuchFileException e) {
+            if (isLive(storedPath)) return 0;
+            throw e;
+        }
+    }
+
+    private static long gzipSize(Path file, long memberEnd) throws IOException {
+        ByteBuffer trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            readFully(ch, trailer, memberEnd - 4);
+        }
+        return Integer.toUnsignedLong(trailer.getInt(0));
+    }
+
+    /**
+     * Offset at which the last {@code lines} lines of the log start (a trailing newline does not
+     * count as an extra empty line). Plain files are scanned backwards from the end; compressed
+     * logs are decoded once, remembering only the last {@code lines + 1} line starts.
+     */
+    public static long tailOffset(String storedPath, int lines) throws IOException {
+        if (lines <= 0) return size(storedPath);
+        if (!isSegmentRef(storedPath) && !storedPath.endsWith(".gz")) {
+            try (FileChannel ch = FileChannel.open(file(storedPath), StandardOpenOption.READ)) {
+                return tailOffset(ch, lines);
+            } catch (NoSuchFileException e) {
+                if (isLive(storedPath)) return 0;
+                throw e;
+            }
+        }
+        long[] starts = new long[lines + 1];
+        long recorded = 1; // starts[0] = 0: the first line
+        long pos = 0;
+        byte[] buf = new byte[8192];
+        try (InputStream in = decoded(storedPath)) {
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] == '\n') starts[(int) (recorded++ % starts.length)] = pos + i + 1;
+                }
+                pos += n;
+            }
+        }
+        long last = recorded - 1;
+        if (last > 0 && starts[(int) (last % starts.length)] == pos) last--;
+        long first = last - (lines - 1);
+        return first <= 0 ? 0 : starts[(int) (first % starts.length)];
+    }
+
+    private static long tailOffset(FileChannel ch, int lines) throws IOException {
+        long end = ch.size();
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        long pos = end;
+        int newlines = 0;
+        boolean skipTrailing = true;
+        while (pos > 0) {
+            int n = (int) Math.min(buf.capacity(), pos);
+            pos -= n;
+            buf.clear().limit(n);
+            readFully(ch, buf, pos);
+            for (int i = n - 1; i >= 0; i--) {
+                if (skipTrailing) {
+                    skipTrailing = false;
+                    if (buf.get(i) == '\n') continue;
+                }
+                if (buf.get(i) == '\n' && ++newlines == lines) return pos + i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Streams decoded bytes {@code [offset, offset + length)} of a stored log to {@code out};
+     * a negative length means to the end. Plain files go through {@link FileChannel#transferTo},
+     * compressed ones through a fixed-size buffer, so memory use does not depend on log size.
+     *
+     * @return the number of bytes written
+     */
+    public static long copy(String storedPath, long offset, long length, OutputStream out) throws IOException {
+        long limit = length < 0 ? Long.MAX_VALUE : length;
+        long copied = 0;
+        if (!isSegmentRef(storedPath) && !storedPath.endsWith(".gz")) {
+            try (FileChannel ch = FileChannel.open(file(storedPath), StandardOpenOption.READ)) {
+                WritableByteChannel target = Channels.newChannel(out);
+                long end = Math.min(ch.size(), offset + Math.min(limit, ch.size()));
+                while (offset + copied < end) {
+                    long n = ch.transferTo(offset + copied, end - offset - copied, target);
+                    if (n <= 0) break;
+                    copied += n;
+                }
+            } catch (NoSuchFileException e) {
+                if (!isLive(storedPath)) throw e;
+            }
+            return copied;
+        }
+        try (InputStream in = decoded(storedPath)) {
+            long skipped = 0;
+            while (skipped < offset) {
+                long n = in.skip(offset - skipped);
+                if (n <= 0) return 0;
+                skipped += n;
+            }
+            byte[] buf = new byte[8192];
+            int n;
+            while (copied < limit && (n = in.read(buf, 0, (int) Math.min(buf.length, limit - copied))) >= 0) {
+                out.write(buf, 0, n);
+                copied += n;
+            }
+        }
+        return copied;
+    }
+
+    /** Reads a whole stored log as text; meant for small logs such as tests and one-off tools. */
+    public static String read(String storedPath) throws IOException {
+        String missing = missing(storedPath);
+        if (missing != null) return missing;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copy(storedPath, 0, -1, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses an HTTP-style byte range ({@code a-b} inclusive, {@code a-} or {@code -n} for the
+     * last n bytes) against a log of {@code size} bytes.
+     *
+     * @return {start, endExclusive}, or null when the range lies entirely past the end
+     * @throws IllegalArgumentException when the spec is malformed
+     */
+    public static long[] parseRange(String spec, long size) {
+        String s = spec.trim();
+        if (s.startsWith("bytes=")) s = s.substring("bytes=".length());
+        int dash = s.indexOf('-');
+        if (dash < 0 || s.indexOf(',') >= 0) throw new IllegalArgumentException("Invalid range '" + spec + "'; expected START-END, START- or -LAST");
+        try {
+            String a = s.substring(0, dash).trim();
+            String b = s.substring(dash + 1).trim();
+            if (a.isEmpty()) {
+                long last = Long.parseLong(b);
+                if (last <= 0) return null;
+                return new long[]{Math.max(0, size - last), size};
+            }
+            long start = Long.parseLong(a);
+            long end = b.isEmpty() ? size : Math.min(size, Long.parseLong(b) + 1);
+            if (start < 0 || end <= start) {
+                if (start >= size) return null;
+                throw new IllegalArgumentException("Invalid range '" + spec + "'");
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid range '" + spec + "'; expected START-END, START- or -LAST");
+        }
+    }
+
+    private static InputStream decoded(String storedPath) throws IOException {
+        Matcher m = SEGMENT_REF.matcher(storedPath);
+        if (m.matches()) {
+            // Members are at most PACK_MAX_BYTES, and the bound keeps GZIPInputStream from
+            // running on into the next member.
+            ByteBuffer member = ByteBuffer.allocate(Integer.parseInt(m.group(3)));
+            try (FileChannel ch = FileChannel.open(Path.of(m.group(1)), StandardOpenOption.READ)) {
+                readFully(ch, member, Long.parseLong(m.group(2)));
+            }
+            return new GZIPInputStream(new ByteArrayInputStream(member.array(), 0, member.position()));
+        }
+        return new GZIPInputStream(Files.newInputStream(file(storedPath)), 64 * 1024);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        long pos = position;
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) throw new EOFException("Log truncated at byte " + pos);
+            pos += n;
+        }
+    }
+
+    private static Path file(String storedPath) {
+        return new File(storedPath).getAbsoluteFile().toPath();
+    }
+
+    /**
+     * Deletes finished logs, segments and live files left by killed workers, when last written
+     * before {@code olderThan} (epoch ms). A segment's mtime is its newest member, so a segment
+     * only goes once all of it has expired.
+     *
+     * @return the number of files deleted
+     */
+    public static int prune(File dir, long olderThan) {
+        int deleted = 0;
+        for (File d : new File[]{dir, new File(dir, SEGMENT_DIR), new File(dir, LIVE_DIR)}) {
+            File[] files = d.listFiles((x, name) -> name.endsWith(".log.gz") || name.endsWith(".gzs") || (d.getName().equals(LIVE_DIR) && name.endsWith(".log")));
+            if (files == null) continue;
+            for (File f : files) {
+                if (f.lastModified() < olderThan && f.delete()) deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Output of one attempt. Everything goes straight to the live file, so followers see it as it
+     * is written; {@link #finish} applies the cap when it stores the log.
+     */
+    public final class Capture {
+        private final File live;
+        private final String jobId;
+        private final int attempt;
+        private final OutputStream out;
+        private boolean closed;
+
+        private Capture(File live, String jobId, int attempt) throws IOException {
+            this.live = live;
+            this.jobId = jobId;
+            this.attempt = attempt;
+            this.out = new FileOutputStream(live);
+        }
+
+        public File liveFile() {
+            return live;
+        }
+
+        /** Copies the process output into this capture until it ends or the capture finishes. */
+        public void pump(InputStream in) {
+            byte[] buf = new byte[8192];
+            try (in) {
+                int n;
+                while ((n = in.read(buf)) >= 0 && write(buf, n)) {}
+            } catch (IOException ignored) {
+                // The stream closes under us when the process is killed.
+            }
+        }
+
+        private synchronized boolean write(byte[] buf, int len) throws IOException {
+            if (closed) return false;
+            out.write(buf, 0, len);
+            return true;
+        }
+
+        /**
+         * Ends the capture, then cuts, compresses and stores the log.
+         *
+         * @return the reference to record as the attempt's output path
+         */
+        public synchronized String finish() throws IOException {
+            closed = true;
+            out.close();
+            return store(live, jobId, attempt);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.queuectl;
+
+import com.queuectl.Models.Job;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * The queue operations producers, workers and the dashboard need, independent of where jobs are
+ * kept. {@link SqliteJobStore} is the durable engine shared by every process on the host;
+ * {@link MemoryJobStore} keeps jobs on the heap of one JVM for ephemeral queues, tests and
+ * benchmarks. {@link Storage#store()} returns the one in use.
+ *
+ * <p>Keyset-paged listings, the change feed, archiving and log lookup remain SQLite-only and are
+ * still reached through {@link Storage} directly.
+ */
+public interface JobStore {
+    /** Inserts the job, or updates its definition and state if the id already exists. */
+    void upsert(Job job);
+
+    void upsertBatch(List<Job> jobs);
+
+    /**
+     * Claims up to {@code n} due pending jobs in claim order (priority DESC, run_at, created_at),
+     * leasing them to {@code owner}. With {@code liveLogPrefix} set, each claimed job's
+     * last_output_path points at the live file of the attempt about to run.
+     */
+    List<Job> fetchAndLockBatch(int n, String owner, int leaseSeconds, String liveLogPrefix);
+
+    /**
+     * Records a finished attempt and moves the job on: completed, pending at the retry time, or
+     * dead (and into the DLQ) once max_retries is used up. Ignored unless the job is still
+     * processing under {@code attempt.leaseOwner}.
+     *
+     * @return the resulting state, or null if the job no longer exists or its lease was lost
+     */
+    String completeAttempt(Storage.Attempt attempt);
+
+    int renewLeases(String owner, int leaseSeconds);
+
+    /** Returns jobs with expired leases to the queue, or to the DLQ when out of retries. */
+    int reclaimExpiredLeases(int leaseSeconds);
+
+    void releaseClaims(List<String> ids);
+
+    /**
+     * Earliest run_at among pending jobs that a claim could take, or null when there are none:
+     * jobs in a queue already at its {@code max_concurrency} are left out.
+     */
+    Instant nextPendingRunAt();
+
+    /** The job by id from the queue or the DLQ (and the archive, where there is one). */
+    Job getJob(String id);
+
+    /** Jobs in {@code state} (all when null) in claim order; DLQ jobs are in {@link #listDlq()}. */
+    List<Job> listJobs(String state);
+
+    List<Job> listDlq();
+
+    void moveToDlq(String id);
+
+    boolean retryFromDlq(String id);
+
+    /** Moves up to {@code limit} matching DLQ jobs back to the queue, oldest update first. */
+    int retryDlqBatch(Storage.DlqFilter filter, int limit);
+
+    Storage.Counts counts();
+}
@@ -0,0 +1,145 @@
+package com.queuectl;
+
+import com.queuectl.Models.Job;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows one job's output behind {@code queuectl logs --follow} and {@code /api/logs/stream}.
+ * While an attempt runs, the job row points at its live file (recorded at claim time); this
+ * remembers how far it has read and, woken by a {@link WatchService} on the live directory,
+ * copies only what was appended since. When the attempt is stored the row switches to the
+ * compressed log, cut to {@code log_max_bytes}; reading resumes at the matching place in it, so
+ * nothing already printed is repeated.
+ */
+public final class LogFollower implements AutoCloseable {
+    /** Upper bound between database checks for a new attempt or a finished job. */
+    private static final long REFRESH_MS = 1_000;
+
+    private final String jobId;
+    private final WatchService watcher;
+    private Path watchedDir;
+    private String path;
+    private long pos;
+    private boolean active = true;
+    private long lastRefresh;
+
+    /**
+     * @param path the log reference already printed up to {@code pos}, or null if none was
+     */
+    public LogFollower(String jobId, String path, long pos) {
+        this.jobId = jobId;
+        this.path = path;
+        this.pos = pos;
+        WatchService ws;
+        try {
+            ws = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            // Fall back to timed waits; new output is still read incrementally.
+            ws = null;
+        }
+        this.watcher = ws;
+        watch();
+    }
+
+    /**
+     * Writes any output added since the last call, then waits up to {@code maxWaitMillis} for the
+     * live file to change.
+     *
+     * @return false once the job has left pending/processing and all of its output was written
+     */
+    public boolean poll(OutputStream out, long maxWaitMillis) throws IOException, InterruptedException {
+        if (System.currentTimeMillis() - lastRefresh >= REFRESH_MS) refresh();
+        long size = 0;
+        if (path != null && JobLogs.missing(path) == null) {
+            size = JobLogs.size(path);
+            if (size > pos) pos += JobLogs.copy(path, pos, size - pos, out);
+            out.flush();
+        }
+        if (!active && pos >= size) return false;
+        await(maxWaitMillis);
+        return true;
+    }
+
+    private void refresh() {
+        lastRefresh = System.currentTimeMillis();
+        Job job = Storage.store().getJob(jobId);
+        if (job == null) {
+            active = false;
+            return;
+        }
+        active = job.state.equals("pending") || job.state.equals("processing");
+        String latest = job.last_output_path;
+        if (latest == null || latest.equals(path)) return;
+        // A new live file is a new attempt; stored logs continue the live file they came from.
+        if (JobLogs.isLive(latest) || !JobLogs.isLive(path)) {
+            pos = 0;
+        } else if (pos > 0) {
+            try {
+                pos = JobLogs.storedOffset(latest, pos);
+            } catch (IOException e) {
+                // Unreadable for now; poll() reports nothing new and the next refresh retries.
+                return;
+            }
+        }
+        path = latest;
+        watch();
+    }
+
+    private void watch() {
+        if (watcher == null || !JobLogs.isLive(path)) return;
+        Path dir = Path.of(path).getParent();
+        if (dir.equals(watchedDir)) return;
+        try {
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            watchedDir = dir;
+        } catch (IOException ignored) {
+            // Not created yet; timed waits cover it until the next attempt.
+        }
+    }
+
+    private void await(long maxMillis) throws InterruptedException {
+        if (watcher == null || watchedDir == null) {
+            Thread.sleep(Math.min(maxMillis, REFRESH_MS));
+            return;
+        }
+        String name = Path.of(path).getFileName().toString();
+        long deadline = System.currentTimeMillis() + Math.min(maxMillis, REFRESH_MS);
+        while (true) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return;
+            WatchKey key;
+            try {
+                key = watcher.poll(remaining, TimeUnit.MILLISECONDS);
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            if (key == null) return;
+            boolean relevant = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || ((Path) event.context()).getFileName().toString().equals(name)) {
+                    relevant = true;
+                    // Deleted means stored: look up the stored log now rather than at the next refresh.
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) lastRefresh = 0;
+                }
+            }
+            key.reset();
+            if (relevant) return;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (watcher == null) return;
+        try { watcher.close(); } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,440 @@
+package com.queuectl;
+
+import com.queuectl.Models.Job;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link JobStore} kept entirely on the heap of this JVM: nothing survives a restart and other
+ * processes cannot see it, so it suits fire-and-forget queues run in-process, tests and
+ * benchmarks. Due pending jobs wait in a skip list in claim order (priority DESC, run_at,
+ * created_at), so a claim is a lock-free {@code pollFirst}; jobs scheduled for later wait in a
+ * second list by run_at and are promoted as they fall due. A job's fields only change under its
+ * slot's monitor, and a queue key that no longer matches its slot is skipped as stale.
+ */
+public final class MemoryJobStore implements JobStore {
+    private static final List<String> STATES = List.of("pending", "processing", "completed", "failed");
+
+    private final ConcurrentHashMap<String, Slot> jobs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Job> dlq = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Key> ready = new ConcurrentSkipListSet<>(Key.CLAIM_ORDER);
+    private final ConcurrentSkipListSet<Key> scheduled = new ConcurrentSkipListSet<>(Key.RUN_AT_ORDER);
+    private final Set<Slot> processing = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, LongAdder> byState = new ConcurrentHashMap<>();
+    private final LongAdder runCount = new LongAdder();
+    private final LongAdder successCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder totalRuntimeMs = new LongAdder();
+    private final AtomicLong lastFinishedAt = new AtomicLong();
+    private final AtomicLong rowids = new AtomicLong();
+    private final AtomicLong keySeq = new AtomicLong();
+
+    @Override
+    public void upsert(Job job) {
+        while (true) {
+            Slot s = jobs.get(job.id);
+            if (s == null) {
+                Slot created = new Slot(rowids.incrementAndGet(), copy(job));
+                synchronized (created) {
+                    if (jobs.putIfAbsent(job.id, created) == null) {
+                        enter(created);
+                        queue(created);
+                        return;
+                    }
+                }
+                continue;
+            }
+            synchronized (s) {
+                if (s.removed) continue;
+                // The same columns the SQLite upsert overwrites; run metrics are kept.
+                Job cur = s.job;
+                cur.command = job.command;
+                cur.queue = job.queue;
+                cur.attempts = job.attempts;
+                cur.max_retries = job.max_retries;
+                cur.priority = job.priority;
+                cur.run_at = job.run_at;
+                cur.timeout_seconds = job.timeout_seconds;
+                cur.created_at = job.created_at;
+                cur.updated_at = job.updated_at;
+                setState(s, job.state);
+                queue(s);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void upsertBatch(List<Job> batch) {
+        for (Job j : batch) upsert(j);
+    }
+
+    @Override
+    public List<Job> fetchAndLockBatch(int n, String owner, int leaseSeconds, String liveLogPrefix) {
+        long started = System.nanoTime();
+        long now = System.currentTimeMillis();
+        long expires = now + leaseSeconds * 1000L;
+        promote(now);
+        List<Job> out = new ArrayList<>();
+        Key k;
+        while (out.size() < Math.max(1, n) && (k = ready.pollFirst()) != null) {
+            Slot s = jobs.get(k.id);
+            if (s == null) continue;
+            synchronized (s) {
+                if (s.key != k) continue;
+                s.key = null;
+                setState(s, "processing");
+                s.job.lease_owner = owner;
+                s.job.lease_expires_at = expires;
+                s.job.updated_at = now;
+                if (liveLogPrefix != null) s.job.last_output_path = liveLogPrefix + s.rowid + "-" + (s.job.attempts + 1) + ".log";
+                out.add(copy(s.job));
+            }
+        }
+        Telemetry.CLAIMED.add(out.size());
+        Telemetry.CLAIM_LATENCY.recordNanos(System.nanoTime() - started);
+        return out;
+    }
+
+    @Override
+    public String completeAttempt(Storage.Attempt a) {
+        long now = System.currentTimeMillis();
+        Slot s = jobs.get(a.id);
+        if (s == null) return null;
+        String next;
+        synchronized (s) {
+            if (s.removed || !s.job.state.equals("processing") || !Objects.equals(s.job.lease_owner, a.leaseOwner)) return null;
+            Job j = s.job;
+            boolean ok = a.exitCode == 0;
+            next = ok ? "completed" : a.attempt < j.max_retries ? "pending" : "dead";
+            if (next.equals("pending")) j.run_at = a.retryAt;
+            j.attempts = a.attempt;
+            j.last_exit_code = a.exitCode;
+            j.last_duration_ms = a.durationMs;
+            j.last_output_path = a.outputPath;
+            j.run_count = orZero(j.run_count) + 1;
+            if (ok) j.success_count = orZero(j.success_count) + 1; else j.failure_count = orZero(j.failure_count) + 1;
+            j.total_runtime_ms = (j.total_runtime_ms != null ? j.total_runtime_ms : 0L) + a.durationMs;
+            j.last_finished_at = now;
+            j.lease_owner = null;
+            j.lease_expires_at = null;
+            j.updated_at = now;
+            runCount.increment();
+            (ok ? successCount : failureCount).increment();
+            totalRuntimeMs.add(a.durationMs);
+            lastFinishedAt.accumulateAndGet(now, Math::max);
+            if (next.equals("dead")) {
+                bury(s, now);
+            } else {
+                setState(s, next);
+                queue(s);
+            }
+        }
+        if (next.equals("pending")) Wakeup.signal();
+        return next;
+    }
+
+    @Override
+    public int renewLeases(String owner, int leaseSeconds) {
+        long expires = System.currentTimeMillis() + leaseSeconds * 1000L;
+        int renewed = 0;
+        for (Slot s : processing) {
+            synchronized (s) {
+                if (s.removed || !s.job.state.equals("processing") || !owner.equals(s.job.lease_owner)) continue;
+                s.job.lease_expires_at = expires;
+                renewed++;
+            }
+        }
+        return renewed;
+    }
+
+    @Override
+    public int reclaimExpiredLeases(int leaseSeconds) {
+        long now = System.currentTimeMillis();
+        long legacyCutoff = now - leaseSeconds * 1000L;
+        int reclaimed = 0;
+        for (Slot s : processing) {
+            synchronized (s) {
+                Job j = s.job;
+                if (s.removed || !j.state.equals("processing")) continue;
+                boolean expired = j.lease_expires_at != null ? j.lease_expires_at < now : j.updated_at < legacyCutoff;
+                if (!expired) continue;
+                j.attempts++;
+                j.lease_owner = null;
+                j.lease_expires_at = null;
+                j.run_at = now;
+                j.updated_at = now;
+                if (j.attempts >= j.max_retries) {
+                    setState(s, "failed");
+                    bury(s, now);
+                } else {
+                    setState(s, "pending");
+                    queue(s);
+                }
+                reclaimed++;
+            }
+        }
+        if (reclaimed > 0) Wakeup.signal();
+        return reclaimed;
+    }
+
+    @Override
+    public void releaseClaims(List<String> ids) {
+        if (ids.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        for (String id : ids) {
+            Slot s = jobs.get(id);
+            if (s == null) continue;
+            synchronized (s) {
+                if (s.removed || !s.job.state.equals("processing")) continue;
+                s.job.lease_owner = null;
+                s.job.lease_expires_at = null;
+                s.job.updated_at = now;
+                setState(s, "pending");
+                queue(s);
+            }
+        }
+        Wakeup.signal();
+    }
+
+    /** A due job answers with its own, already past, run_at; otherwise the earliest scheduled one. */
+    @Override
+    public Instant nextPendingRunAt() {
+        Iterator<Key> due = ready.iterator();
+        if (due.hasNext()) return Instant.ofEpochMilli(due.next().runAt);
+        Iterator<Key> later = scheduled.iterator();
+        return later.hasNext() ? Instant.ofEpochMilli(later.next().runAt) : null;
+    }
+
+    @Override
+    public Job getJob(String id) {
+        Slot s = jobs.get(id);
+        if (s != null) {
+            synchronized (s) {
+                if (!s.removed) return copy(s.job);
+            }
+        }
+        Job dead = dlq.get(id);
+        return dead != null ? copy(dead) : null;
+    }
+
+    @Override
+    public List<Job> listJobs(String state) {
+        List<Job> out = new ArrayList<>();
+        for (Slot s : jobs.values()) {
+            synchronized (s) {
+                if (!s.removed && (state == null || state.equals(s.job.state))) out.add(copy(s.job));
+            }
+        }
+        out.sort(Storage.CLAIM_ORDER);
+        return out;
+    }
+
+    @Override
+    public List<Job> listDlq() {
+        List<Job> out = new ArrayList<>();
+        for (Job j : dlq.values()) out.add(copy(j));
+        out.sort(Comparator.comparingLong(j -> j.created_at));
+        return out;
+    }
+
+    @Override
+    public void moveToDlq(String id) {
+        Slot s = jobs.get(id);
+        if (s == null) return;
+        synchronized (s) {
+            if (!s.removed) bury(s, System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public boolean retryFromDlq(String id) {
+        Job dead = dlq.remove(id);
+        if (dead == null) return false;
+        requeue(dead, System.currentTimeMillis());
+        return true;
+    }
+
+    @Override
+    public int retryDlqBatch(Storage.DlqFilter filter, int limit) {
+        List<Job> matching = new ArrayList<>();
+        for (Job j : dlq.values()) {
+            if (filter.exitCode != null && !filter.exitCode.equals(j.last_exit_code)) continue;
+            if (filter.idPrefix != null && !j.id.startsWith(filter.idPrefix)) continue;
+            if (filter.updatedBefore != null && j.updated_at >= filter.updatedBefore) continue;
+            matching.add(j);
+        }
+        matching.sort(Comparator.comparingLong((Job j) -> j.updated_at).thenComparing(j -> j.id));
+        long now = System.currentTimeMillis();
+        int moved = 0;
+        for (Job j : matching) {
+            if (moved == limit) break;
+            if (!dlq.remove(j.id, j)) continue;
+            requeue(j, now);
+            moved++;
+        }
+        return moved;
+    }
+
+    @Override
+    public Storage.Counts counts() {
+        Storage.Counts c = new Storage.Counts();
+        for (String state : STATES) c.set(state, (int) adder(state).sum());
+        c.dead = dlq.size();
+        c.run_count = runCount.sum();
+        c.success_count = successCount.sum();
+        c.failure_count = failureCount.sum();
+        c.total_runtime_ms = totalRuntimeMs.sum();
+        long last = lastFinishedAt.get();
+        c.last_finished_at = last > 0 ? last : null;
+        return Storage.finishCounts(c);
+    }
+
+    /** Puts a job taken out of the DLQ back in the queue, reset as {@link Storage#retryFromDlq} does. */
+    private void requeue(Job dead, long now) {
+        Job j = copy(dead);
+        j.state = "pending";
+        j.attempts = 0;
+        j.run_at = now;
+        j.updated_at = now;
+        upsert(j);
+    }
+
+    /** Moves the slot's job into the DLQ; DLQ entries are never modified in place. */
+    private void bury(Slot s, long now) {
+        unqueue(s);
+        leave(s);
+        s.removed = true;
+        jobs.remove(s.job.id, s);
+        Job j = s.job;
+        j.state = "dead";
+        j.updated_at = now;
+        j.lease_owner = null;
+        j.lease_expires_at = null;
+        dlq.put(j.id, j);
+    }
+
+    private void promote(long now) {
+        for (Iterator<Key> it = scheduled.iterator(); it.hasNext(); ) {
+            Key k = it.next();
+            if (k.runAt > now) return;
+            if (scheduled.remove(k)) ready.add(k);
+        }
+    }
+
+    /** Re-keys a pending slot after its priority, run_at or state changed; caller holds its monitor. */
+    private void queue(Slot s) {
+        unqueue(s);
+        if (!s.job.state.equals("pending")) return;
+        Key k = new Key(s.job, keySeq.incrementAndGet());
+        s.key = k;
+        (k.runAt <= System.currentTimeMillis() ? ready : scheduled).add(k);
+    }
+
+    private void unqueue(Slot s) {
+        if (s.key == null) return;
+        ready.remove(s.key);
+        scheduled.remove(s.key);
+        s.key = null;
+    }
+
+    private void setState(Slot s, String state) {
+        if (state.equals(s.job.state)) return;
+        leave(s);
+        s.job.state = state;
+        enter(s);
+    }
+
+    private void enter(Slot s) {
+        adder(s.job.state).increment();
+        if (s.job.state.equals("processing")) processing.add(s);
+    }
+
+    private void leave(Slot s) {
+        adder(s.job.state).decrement();
+        if (s.job.state.equals("processing")) processing.remove(s);
+    }
+
+    private LongAdder adder(String state) {
+        return byState.computeIfAbsent(state, k -> new LongAdder());
+    }
+
+    private static int orZero(Integer v) {
+        return v != null ? v : 0;
+    }
+
+    static Job copy(Job src) {
+        Job j = new Job();
+        j.id = src.id;
+        j.command = src.command;
+        j.queue = src.queue;
+        j.state = src.state;
+        j.attempts = src.attempts;
+        j.max_retries = src.max_retries;
+        j.priority = src.priority;
+        j.run_at = src.run_at;
+        j.timeout_seconds = src.timeout_seconds;
+        j.last_exit_code = src.last_exit_code;
+        j.last_duration_ms = src.last_duration_ms;
+        j.last_output_path = src.last_output_path;
+        j.run_count = src.run_count;
+        j.success_count = src.success_count;
+        j.failure_count = src.failure_count;
+        j.total_runtime_ms = src.total_runtime_ms;
+        j.last_finished_at = src.last_finished_at;
+        j.lease_owner = src.lease_owner;
+        j.lease_expires_at = src.lease_expires_at;
+        j.created_at = src.created_at;
+        j.updated_at = src.updated_at;
+        return j;
+    }
+
+    /** A job and where it sits in the queue; {@code key} is null unless it is pending. */
+    private static final class Slot {
+        final long rowid;
+        final Job job;
+        Key key;
+        boolean removed;
+
+        Slot(long rowid, Job job) {
+            this.rowid = rowid;
+            this.job = job;
+        }
+    }
+
+    /** Immutable position of one pending job; {@code seq} keeps distinct keys from comparing equal. */
+    private static final class Key {
+        static final Comparator<Key> CLAIM_ORDER = Comparator
+            .comparingInt((Key k) -> k.priority).reversed()
+            .thenComparingLong(k -> k.runAt)
+            .thenComparingLong(k -> k.createdAt)
+            .thenComparingLong(k -> k.seq);
+        static final Comparator<Key> RUN_AT_ORDER = Comparator
+            .comparingLong((Key k) -> k.runAt)
+            .thenComparingLong(k -> k.seq);
+
+        final String id;
+        final int priority;
+        final long runAt;
+        final long createdAt;
+        final long seq;
+
+        Key(Job j, long seq) {
+            this.id = j.id;
+            this.priority = j.priority;
+            this.runAt = j.run_at;
+            this.createdAt = j.created_at;
+            this.seq = seq;
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package com.queuectl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Ordered schema migrations tracked in {@code schema_version}. Storage runs them once when a
+ * process opens its connection pool; hot paths never touch the schema. Each step runs in its
+ * own BEGIN IMMEDIATE transaction and re-reads the version under that lock, so processes that
+ * start together apply every step exactly once.
+ */
+public final class Migrations {
+    private Migrations() {}
+
+    @FunctionalInterface
+    interface Migration {
+        /**
+         * Applies the step, or the next chunk of it.
+         *
+         * @return true when the step is complete; false to commit the progress so far and be
+         *         called again in a fresh transaction
+         */
+        boolean apply(Connection c) throws SQLException;
+    }
+
+    @FunctionalInterface
+    interface Step {
+        void apply(Connection c) throws SQLException;
+    }
+
+    /** A migration that completes in a single transaction. */
+    private static Migration once(Step step) {
+        return c -> {
+            step.apply(c);
+            return true;
+        };
+    }
+
+    /** Timestamp columns moved from ISO-8601 TEXT to INTEGER epoch milliseconds in v7-v9. */
+    private static final String[] TIMESTAMP_COLUMNS = {"run_at", "created_at", "updated_at", "last_finished_at", "lease_expires_at"};
+    private static final String[] JOB_TABLES = {"jobs", "dead_letter_jobs"};
+    private static final int BACKFILL_CHUNK = 5_000;
+
+    // Append only: the position in this list is the schema version the step produces.
+    private static final List<Migration> MIGRATIONS = List.of(
+        once(Migrations::baseTables),
+        once(Migrations::pendingIndexes),
+        once(Migrations::queueStats),
+        once(Migrations::listIndexes),
+        once(Migrations::updatedAtIndexes),
+        once(Migrations::claimLeases),
+        once(Migrations::epochMillisColumns),
+        Migrations::backfillEpochMillis,
+        once(Migrations::swapEpochMillisColumns),
+        once(Migrations::archiveTable),
+        once(Migrations::queueColumn),
+        once(Migrations::queueClaimIndex),
+        once(Migrations::changeLog)
+    );
+
+    public static int latestVersion() {
+        return MIGRATIONS.size();
+    }
+
+    public static void migrate(Connection c) throws SQLException {
+        migrate(c, MIGRATIONS.size());
+    }
+
+    /** Applies steps until the schema is at {@code target}; lets tests build databases as older releases left them. */
+    static void migrate(Connection c, int target) throws SQLException {
+        try (Statement s = c.createStatement()) {
+            s.executeUpdate("CREATE TABLE IF NOT EXISTS schema_version (id INTEGER PRIMARY KEY CHECK (id = 1), version INTEGER NOT NULL)");
+        }
+        while (true) {
+            try (Statement s = c.createStatement()) {
+                s.execute("BEGIN IMMEDIATE");
+            }
+            try {
+                int current = currentVersion(c);
+                if (current >= Math.min(target, MIGRATIONS.size())) {
+                    commit(c);
+                    return;
+                }
+                // Chunked steps commit their progress and come back round without bumping the version.
+                if (MIGRATIONS.get(current).apply(c)) setVersion(c, current + 1);
+                commit(c);
+            } catch (SQLException | RuntimeException e) {
+                try (Statement s = c.createStatement()) {
+                    s.execute("ROLLBACK");
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static int currentVersion(Connection c) throws SQLException {
+        try (Statement s = c.createStatement(); ResultSet rs = s.executeQuery("SELECT version FROM schema_version WHERE id = 1")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static void setVersion(Connection c, int version) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("INSERT INTO schema_version (id, version) VALUES (1, ?) ON CONFLICT(id) DO UPDATE SET version=excluded.version")) {
+            ps.setInt(1, version);
+            ps.executeUpdate();
+        }
+    }
+
+    private static void commit(Connection c) throws SQLException {
+        try (Statement s = c.createStatement()) {
+            s.execute("COMMIT");
+        }
+    }
+
+    /** v1: jobs and dead_letter_jobs, including columns added before versioning existed. */
+    private static void baseTables(Connection c) throws SQLException {
+        try (Statement s = c.createStatement()) {
+            s.executeUpdate(
+                "CREATE TABLE IF NOT EXISTS jobs (" +
+                    "id TEXT PRIMARY KEY, " +
+                    "command TEXT, " +
+                    "state TEXT, " +
+                    "attempts INTEGER, " +
+                    "max_retries INTEGER, " +
+                    "priority INTEGER DEFAULT 0, " +
+                    "run_at TEXT, " +
+                    "timeout_seconds INTEGER DEFAULT 0, " +
+                    "last_exit_code INTEGER, " +
+                    "last_duration_ms INTEGER, " +
+                    "last_output_path TEXT, " +
+                    "run_count INTEGER DEFAULT 0, " +
+                    "success_count INTEGER DEFAULT 0, " +
+                    "failure_count INTEGER DEFAULT 0, " +
+                    "total_runtime_ms INTEGER DEFAULT 0, " +
+                    "last_finished_at TEXT, " +
+                    "created_at TEXT, " +
+                    "updated_at TEXT)"
+            );
+            s.executeUpdate(
+                "CREATE TABLE IF NOT EXISTS dead_letter_jobs (" +
+                    "id TEXT PRIMARY KEY, " +
+                    "command TEXT, " +
+                    "state TEXT, " +
+                    "attempts INTEGER, " +
+                    "max_retries INTEGER, " +
+                    "priority INTEGER DEFAULT 0, " +
+                    "run_at TEXT, " +
+                    "timeout_seconds INTEGER DEFAULT 0, " +
+                    "last_exit_code INTEGER, " +
+                    "last_duration_ms INTEGER, " +
+                    "last_output_path TEXT, " +
+                    "run_count INTEGER DEFAULT 0, " +
+                    "success_count INTEGER DEFAULT 0, " +
+                    "failure_count INTEGER DEFAULT 0, " +
+                    "total_runtime_ms INTEGER DEFAULT 0, " +
+                    "last_finished_at TEXT, " +
+                    "created_at TEXT, " +
+                    "updated_at TEXT)"
+            );
+            ensureColumn(c, "jobs", "priority", "INTEGER DEFAULT 0");
+            ensureColumn(c, "jobs", "run_at", "TEXT");
+            ensureColumn(c, "jobs", "timeout_seconds", "INTEGER DEFAULT 0");
+            ensureColumn(c, "jobs", "last_exit_code", "INTEGER");
+            ensureColumn(c, "jobs", "last_duration_ms", "INTEGER");
+            ensureColumn(c, "jobs", "last_output_path", "TEXT");
+            ensureColumn(c, "jobs", "run_count", "INTEGER DEFAULT 0");
+            ensureColumn(c, "jobs", "success_count", "INTEGER DEFAULT 0");
+            ensureColumn(c, "jobs", "failure_count", "INTEGER DEFAULT 0");
+            ensureColumn(c, "jobs", "total_runtime_ms", "INTEGER DEFAULT 0");
+            ensureColumn(c, "jobs", "last_finished_at", "TEXT");
+            ensureColumn(c, "dead_letter_jobs", "priority", "INTEGER DEFAULT 0");
+            ensureColumn(c, "dead_letter_jobs", "run_at", "TEXT");
+            ensureColumn(c, "dead_letter_jobs", "timeout_seconds", "INTEGER DEFAULT 0");
+            ensureColumn(c, "dead_letter_jobs", "last_exit_code", "INTEGER");
+            ensureColumn(c, "dead_letter_jobs", "last_duration_ms", "INTEGER");
+            ensureColumn(c, "dead_letter_jobs", "last_output_path", "TEXT");
+            ensureColumn(c, "dead_letter_jobs", "run_count", "INTEGER DEFAULT 0");
+            ensureColumn(c, "dead_letter_jobs", "success_count", "INTEGER DEFAULT 0");
+            ensureColumn(c, "dead_letter_jobs", "failure_count", "INTEGER DEFAULT 0");
+            ensureColumn(c, "dead_letter_jobs", "total_runtime_ms", "INTEGER DEFAULT 0");
+            ensureColumn(c, "dead_letter_jobs", "last_finished_at", "TEXT");
+        }
+    }
+
+    /** v2: partial indexes over pending rows for the claim query and the idle-wait lookup. */
+    private static void pendingIndexes(Connection c) throws SQLException {
+        try (Statement s = c.createStatement()) {
+            s.executeUpdate("CREATE INDEX IF NOT EXISTS idx_jobs_pending ON jobs(priority DESC, run_at ASC, created_at ASC, id) WHERE state='pending'");
+            s.executeUpdate("CREATE INDEX IF NOT EXISTS idx_jobs_pending_run_at ON jobs(run_at) WHERE state='pending'");
+        }
+    }
+
+    /**
+     * v3: queue_stats, a small name/value table kept current by triggers on jobs and
+     * dead_letter_jobs so counts() reads a handful of rows instead of aggregating both tables.
+     * Keys: {@code jobs:<state>} row counts, {@code dlq} row count, the four summed execution
+     * metrics and {@code last_finished_at}.
+     */
+    private static void queueStats(Connection c) throws SQLException {
+        try (Statement s = c.createStatement()) {
+            s.executeUpdate("CREATE TABLE IF NOT EXISTS queue_stats (name TEXT PRIMARY KEY NOT NULL, value)");
+            for (String sql : statsTriggers("jobs", "'jobs:' || COALESCE(%s.state, '')")) s.executeUpdate(sql);
+            for (String sql : statsTriggers("dead_letter_jobs", "'dlq'")) s.executeUpdate(sql);
+            s.executeUpdate(
+                "CREATE TRIGGER IF NOT EXISTS trg_jobs_stats_state AFTER UPDATE OF state ON jobs WHEN OLD.state IS NOT NEW.state BEGIN " +
+                    "UPDATE queue_stats SET value = value - 1 WHERE name = 'jobs:' || COALESCE(OLD.state, ''); " +
+                    "INSERT INTO queue_stats (name, value) VALUES ('jobs:' || COALESCE(NEW.state, ''), 1) ON CONFLICT(name) DO UPDATE SET value = value + 1; " +
+                    "END"
+            );
+        }
+        rebuildStats(c);
+    }
+
+    /** v4: indexes matching the keyset order used by Storage.streamJobs, with and without a state filter. */
+    private static void listIndexes(Connection c) throws SQLException {
+        try (Statement s = c.createStatement()) {
+            s.executeUpdate("CREATE INDEX IF NOT EXISTS idx_jobs_list ON jobs(priority DESC, run_at ASC, created_at ASC, id ASC)");
+            s.executeUpdate("CREATE INDEX IF NOT EXISTS idx_jobs_state_list ON jobs(state, priority DESC, run_at ASC, created_at ASC, id ASC)");
+        }
+    }
+
+    /** v5: updated_at indexes so the dashboard change feed reads only rows changed since its last poll. */
+    private static void updatedAtIndexes(Connection c) throws SQLException {
+        try (Statement s = c.createStatement()) {
+            s.executeUpdate("CREATE INDEX IF NOT EXISTS idx_jobs_updated_at ON jobs(updated_at)");
+            s.executeUpdate("CREATE INDEX IF NOT EXISTS idx_dlq_updated_at ON dead_letter_jobs(updated_at)");
+        }
+    }
+
+    /**
+     * v6: lease columns on claimed jobs, and an index for the reaper's scan of expired leases.
+     * dead_letter_jobs gets the same (always NULL) columns so rows from both tables map alike.
+     */
+    private static void claimLeases(Connection c) throws SQLException {
+        for (String table : new String[]{"jobs", "dead_letter_jobs"}) {
+            ensureColumn(c, table, "lease_owner", "TEXT");
+            ensureColumn(c, table, "lease_expires_at", "TEXT");
+        }
+        try (Statement s = c.createStatement()) {
+            s.executeUpdate("CREATE INDEX IF NOT EXISTS idx_jobs_lease ON jobs(lease_expires_at) WHERE state='processing'");
+        }
+    }
+
+    /** v7: INTEGER epoch-millisecond shadow columns for every timestamp, filled by v8. */
+    private static void epochMillisColumns(Connection c) throws SQLException {
+        for (String table : JOB_TABLES) {
+            for (String column : TIMESTAMP_COLUMNS) ensureColumn(c, table, column + "_ms", "INTEGER");
+        }
+    }
+
+    private static String toMillis(String column) {
+        return "CAST(ROUND((julianday(" + column + ") - 2440587.5) * 86400000.0) AS INTEGER)";
+    }
+
+    /**
+     * v8: online backfill of the _ms columns, {@value #BACKFILL_CHUNK} rows per table per
+     * transaction, so the write lock is only ever held briefly and an interrupted upgrade
+     * resumes where it stopped. updated_at_ms is never left NULL, which marks a row as done.
+     */
+    private static boolean backfillEpochMillis(Connection c) throws SQLException {
+        int touched = 0;
+        for (String table : JOB_TABLES) {
+            String sql = "UPDATE " + table + " SET " +
+                "updated_at_ms = COALESCE(" + toMillis("updated_at") + ", " + toMillis("created_at") + ", 0), " +
+                "created_at_ms = COALESCE(" + toMillis("created_at") + ", " + toMillis("updated_at") + ", 0), " +
+                "run_at_ms = COALESCE(" + toMillis("run_at") + ", " + toMillis("created_at") + ", 0), " +
+                "last_finished_at_ms = " + toMillis("last_finished_at") + ", " +
+                "lease_expires_at_ms = " + toMillis("lease_expires_at") + " " +
+                "WHERE rowid IN (SELECT rowid FROM " + table + " WHERE updated_at_ms IS NULL LIMIT " + BACKFILL_CHUNK + ")";
+            try (Statement s = c.createStatement()) {
+                touched += s.executeUpdate(sql);
+            }
+        }
+        return touched == 0;
+    }
+
+    /**
+     * v9: makes the integer columns the real ones. Renaming is a schema-only change, so this is
+     * cheap on any table size: {@code run_at} becomes {@code run_at_iso} (kept, no longer written)
+     * and {@code run_at_ms} becomes {@code run_at}. Indexes and the stats triggers that named the
+     * TEXT columns are rebuilt over the integer ones, and queue_stats.last_finished_at is recomputed.
+     */
+    private static void swapEpochMillisColumns(Connection c) throws SQLException {
+        // Catch rows written by an older process since the backfill finished.
+        boolean done;
+        do {
+            done = backfillEpochMillis(c);
+        } while (!done);
+        try (Statement s = c.createStatement()) {
+            for (String index : new String[]{"idx_jobs_pending", "idx_jobs_pending_run_at", "idx_jobs_list", "idx_jobs_state_list",
+                "idx_jobs_updated_at", "idx_dlq_updated_at", "idx_jobs_lease"}) {
+                s.executeUpdate("DROP INDEX IF EXISTS " + index);
+            }
+            for (String table : JOB_TABLES) {
+                s.executeUpdate("DROP TRIGGER IF EXISTS trg_" + table + "_stats_insert");
+                s.executeUpdate("DROP TRIGGER IF EXISTS trg_" + table + "_stats_metrics");
+                for (String column : TIMESTAMP_COLUMNS) {
+                    s.executeUpdate("ALTER TABLE " + table + " RENAME COLUMN " + column + " TO " + column + "_iso");
+                    s.executeUpdate("ALTER TABLE " + table + " RENAME COLUMN " + column + "_ms TO " + column);
+                }
+            }
+            for (String sql : statsTriggers("jobs", "'jobs:' || COALESCE(%s.state, '')")) s.executeUpdate(sql);
+            for (String sql : statsTriggers("dead_letter_jobs", "'dlq'")) s.executeUpdate(sql);
+        }
+        pendingIndexes(c);
+        listIndexes(c);
+        updatedAtIndexes(c);
+        try (Statement s = c.createStatement()) {
+            s.executeUpdate("CREATE INDEX IF NOT EXISTS idx_jobs_lease ON jobs(lease_expires_at) WHERE state='processing'");
+        }
+        rebuildStats(c);
+    }
+
+    /**
+     * v10: archived_jobs, where the compactor moves old completed rows so the hot jobs table stays
+     * small. Its insert/delete triggers keep the execution metrics in queue_stats unchanged when a
+     * row moves over, and count it under {@code archived}.
+     */
+    private static void archiveTable(Connection c) throws SQLException {
+        try (Statement s = c.createStatement()) {
+            s.executeUpdate(
+                "CREATE TABLE IF NOT EXISTS archived_jobs (" +
+                    "id TEXT PRIMARY KEY, " +
+                    "command TEXT, " +
+                    "state TEXT, " +
+                    "attempts INTEGER, " +
+                    "max_retries INTEGER, " +
+                    "priority INTEGER DEFAULT 0, " +
+                    "run_at INTEGER, " +
+                    "timeout_seconds INTEGER DEFAULT 0, " +
+                    "last_exit_code INTEGER, " +
+                    "last_duration_ms INTEGER, " +
+                    "last_output_path TEXT, " +
+                    "run_count INTEGER DEFAULT 0, " +
+                    "success_count INTEGER DEFAULT 0, " +
+                    "failure_count INTEGER DEFAULT 0, " +
+                    "total_runtime_ms INTEGER DEFAULT 0, " +
+                    "last_finished_at INTEGER, " +
+                    "created_at INTEGER, " +
+                    "updated_at INTEGER, " +
+                    "lease_owner TEXT, " +
+                    "lease_expires_at INTEGER, " +
+                    "archived_at INTEGER)"
+            );
+            s.executeUpdate("CREATE INDEX IF NOT EXISTS idx_jobs_completed ON jobs(updated_at, id) WHERE state='completed'");
+            s.executeUpdate("CREATE INDEX IF NOT EXISTS idx_archived_list ON archived_jobs(priority DESC, run_at ASC, created_at ASC, id ASC)");
+            for (String sql : statsTriggers("archived_jobs", "'archived'")) s.executeUpdate(sql);
+        }
+        rebuildStats(c);
+    }
+
+    /** v11: named queues; existing rows join the default queue. */
+    private static void queueColumn(Connection c) throws SQLException {
+        for (String table : new String[]{"jobs", "dead_letter_jobs", "archived_jobs"}) {
+            ensureColumn(c, table, "queue", "TEXT NOT NULL DEFAULT '" + Models.DEFAULT_QUEUE + "'");
+        }
+    }
+
+    /**
+     * v12: claim order within each queue, for per-queue claims and for finding the queues with
+     * pending jobs without scanning them.
+     */
+    private static void queueClaimIndex(Connection c) throws SQLException {
+        try (Statement s = c.createStatement()) {
+            s.executeUpdate("CREATE INDEX IF NOT EXISTS idx_jobs_pending_queue ON jobs(queue, priority DESC, run_at ASC, created_at ASC, id) WHERE state='pending'");
+        }
+    }
+
+    /**
+     * v13: job_changes, one row per insert, update or delete on jobs and dead_letter_jobs. Writes
+     * are serialized, so the AUTOINCREMENT seq follows commit order; the dashboard feed pages on
+     * it rather than on updated_at, which can commit out of order and collide within a
+     * millisecond. Lease renewals, which change nothing else, are not logged.
+     */
+    private static void changeLog(Connection c) throws SQLException {
+        try (Statement s = c.createStatement()) {
+            s.executeUpdate("CREATE TABLE IF NOT EXISTS job_changes (seq INTEGER PRIMARY KEY AUTOINCREMENT, id TEXT NOT NULL)");
+            for (String table : JOB_TABLES) {
+                s.executeUpdate("CREATE TRIGGER IF NOT EXISTS trg_" + table + "_changes_insert AFTER INSERT ON " + table + " BEGIN " +
+                    "INSERT INTO job_changes (id) VALUES (NEW.id); END");
+                s.executeUpdate("CREATE TRIGGER IF NOT EXISTS trg_" + table + "_changes_update AFTER UPDATE ON " + table + " " +
+                    "WHEN OLD.lease_expires_at IS NEW.lease_expires_at OR OLD.updated_at IS NOT NEW.updated_at OR OLD.state IS NOT NEW.state BEGIN " +
+                    "INSERT INTO job_changes (id) VALUES (NEW.id); END");
+                s.executeUpdate("CREATE TRIGGER IF NOT EXISTS trg_" + table + "_changes_delete AFTER DELETE ON " + table + " BEGIN " +
+                    "INSERT INTO job_changes (id) VALUES (OLD.id); END");
+            }
+        }
+    }
+
+    private static final String METRIC_KEYS = "('run_count', 'success_count', 'failure_count', 'total_runtime_ms')";
+
+    private static String metricDelta(String sign, String row) {
+        return "CASE name " +
+            "WHEN 'run_count' THEN " + sign + "COALESCE(" + row + ".run_count, 0) " +
+            "WHEN 'success_count' THEN " + sign + "COALESCE(" + row + ".success_count, 0) " +
+            "WHEN 'failure_count' THEN " + sign + "COALESCE(" + row + ".failure_count, 0) " +
+            "ELSE " + sign + "COALESCE(" + row + ".total_runtime_ms, 0) END";
+    }
+
+    private static String bumpLastFinished(String row) {
+        return "UPDATE queue_stats SET value = " + row + ".last_finished_at WHERE name = 'last_finished_at' " +
+            "AND " + row + ".last_finished_at IS NOT NULL AND (value IS NULL OR value < " + row + ".last_finished_at); ";
+    }
+
+    /** Insert/delete/metric-update triggers for one table; {@code keyFormat} maps NEW/OLD to its row-count key. */
+    private static List<String> statsTriggers(String table, String keyFormat) {
+        String newKey = String.format(keyFormat, "NEW");
+        String oldKey = String.format(keyFormat, "OLD");
+        return List.of(
+            "CREATE TRIGGER IF NOT EXISTS trg_" + table + "_stats_insert AFTER INSERT ON " + table + " BEGIN " +
+                "INSERT INTO queue_stats (name, value) VALUES (" + newKey + ", 1) ON CONFLICT(name) DO UPDATE SET value = value + 1; " +
+                "UPDATE queue_stats SET value = value + " + metricDelta("", "NEW") + " WHERE name IN " + METRIC_KEYS + "; " +
+                bumpLastFinished("NEW") +
+                "END",
+            "CREATE TRIGGER IF NOT EXISTS trg_" + table + "_stats_delete AFTER DELETE ON " + table + " BEGIN " +
+                "UPDATE queue_stats SET value = value - 1 WHERE name = " + oldKey + "; " +
+                "UPDATE queue_stats SET value = value + " + metricDelta("-", "OLD") + " WHERE name IN " + METRIC_KEYS + "; " +
+                "END",
+            "CREATE TRIGGER IF NOT EXISTS trg_" + table + "_stats_metrics AFTER UPDATE OF run_count, success_count, failure_count, total_runtime_ms, last_finished_at ON " + table + " BEGIN " +
+                "UPDATE queue_stats SET value = value + " + metricDelta("", "NEW") + " + " + metricDelta("-", "OLD") + " WHERE name IN " + METRIC_KEYS + "; " +
+                bumpLastFinished("NEW") +
+                "END"
+        );
+    }
+
+    /** Recomputes queue_stats from the job tables. Callers must hold the write lock. */
+    static void rebuildStats(Connection c) throws SQLException {
+        // archived_jobs only exists from v10; earlier steps rebuild without it.
+        boolean archive = tableExists(c, "archived_jobs");
+        String metrics = "SELECT run_count, success_count, failure_count, total_runtime_ms, last_finished_at FROM ";
+        String allTables = "(" + metrics + "jobs UNION ALL " + metrics + "dead_letter_jobs" +
+            (archive ? " UNION ALL " + metrics + "archived_jobs" : "") + ")";
+        try (Statement s = c.createStatement()) {
+            s.executeUpdate("DELETE FROM queue_stats");
+            s.executeUpdate("INSERT INTO queue_stats (name, value) SELECT 'jobs:' || COALESCE(state, ''), COUNT(1) FROM jobs GROUP BY state");
+            s.executeUpdate("INSERT INTO queue_stats (name, value) SELECT 'dlq', COUNT(1) FROM dead_letter_jobs");
+            if (archive) s.executeUpdate("INSERT INTO queue_stats (name, value) SELECT 'archived', COUNT(1) FROM archived_jobs");
+            s.executeUpdate("INSERT INTO queue_stats (name, value) SELECT 'run_count', COALESCE(SUM(run_count), 0) FROM " + allTables);
+            s.executeUpdate("INSERT INTO queue_stats (name, value) SELECT 'success_count', COALESCE(SUM(success_count), 0) FROM " + allTables);
+            s.executeUpdate("INSERT INTO queue_stats (name, value) SELECT 'failure_count', COALESCE(SUM(failure_count), 0) FROM " + allTables);
+            s.executeUpdate("INSERT INTO queue_stats (name, value) SELECT 'total_runtime_ms', COALESCE(SUM(total_runtime_ms), 0) FROM " + allTables);
+            s.executeUpdate("INSERT INTO queue_stats (name, value) SELECT 'last_finished_at', MAX(last_finished_at) FROM " + allTables);
+        }
+    }
+
+    private static boolean tableExists(Connection c, String table) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT 1 FROM sqlite_master WHERE type='table' AND name=?")) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private static void ensureColumn(Connection c, String table, String column, String definition) throws SQLException {
+        boolean exists = false;
+        try (Statement check = c.createStatement(); ResultSet rs = check.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    exists = true;
+                    break;
+                }
+            }
+        }
+        if (!exists) {
+            try (Statement alter = c.createStatement()) {
+                alter.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+            }
+        }
+    }
+}
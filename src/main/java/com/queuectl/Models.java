@@ -1,23 +1,53 @@
 package com.queuectl;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.io.IOException;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 
 public class Models {
     public static final DateTimeFormatter ISO = DateTimeFormatter.ISO_INSTANT;
+    public static final String DEFAULT_QUEUE = "default";
 
     public static String nowIso() {
         return ISO.format(Instant.now());
     }
 
+    /** Formats an epoch-millisecond timestamp as ISO-8601; null stays null. */
+    public static String iso(Long epochMillis) {
+        return epochMillis == null ? null : ISO.format(Instant.ofEpochMilli(epochMillis));
+    }
+
+    /** Parses an ISO-8601 instant to epoch milliseconds. */
+    public static long parseIso(String text) {
+        return Instant.parse(text).toEpochMilli();
+    }
+
+    /**
+     * Timestamps are stored and compared as epoch milliseconds; this writes them as ISO-8601
+     * strings so JSON output (CLI, dashboard, SSE) keeps its readable format.
+     */
+    public static class IsoMillisSerializer extends JsonSerializer<Long> {
+        @Override
+        public void serialize(Long value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            gen.writeString(iso(value));
+        }
+    }
+
     public static class Job {
         public String id;
         public String command;
+        public String queue = DEFAULT_QUEUE;
         public String state = "pending"; // pending, processing, completed, failed, dead
         public int attempts = 0;
         public int max_retries = 3;
         public int priority = 0;
-        public String run_at = nowIso();
+        @JsonSerialize(using = IsoMillisSerializer.class)
+        public long run_at = System.currentTimeMillis();
         public int timeout_seconds = 0; // 0 => no timeout / use default
         public Integer last_exit_code = null;
         public Long last_duration_ms = null;
@@ -26,18 +56,22 @@ public class Models {
         public Integer success_count = 0;
         public Integer failure_count = 0;
         public Long total_runtime_ms = 0L;
-        public String last_finished_at = null;
-        public String created_at = nowIso();
-        public String updated_at = created_at;
+        @JsonSerialize(using = IsoMillisSerializer.class)
+        public Long last_finished_at = null;
+        public String lease_owner = null; // worker holding a processing claim
+        @JsonSerialize(using = IsoMillisSerializer.class)
+        public Long lease_expires_at = null;
+        @JsonSerialize(using = IsoMillisSerializer.class)
+        public long created_at = System.currentTimeMillis();
+        @JsonSerialize(using = IsoMillisSerializer.class)
+        public long updated_at = created_at;
 
         public Job() {}
 
         public Job(String id, String command) {
             this.id = id;
             this.command = command;
-            this.run_at = nowIso();
+            this.run_at = System.currentTimeMillis();
         }
     }
 }
-
-
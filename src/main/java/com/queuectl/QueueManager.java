@@ -1,23 +1,71 @@
 package com.queuectl;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.queuectl.Models.Job;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 public class QueueManager {
+    private static final ObjectMapper JSON = new ObjectMapper().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
     public void enqueue(Job job) {
-        Storage.upsert(job);
+        Storage.store().upsert(job);
+        Wakeup.signal();
+    }
+
+    public void enqueueAll(List<Job> jobs) {
+        Storage.store().upsertBatch(jobs);
+        Wakeup.signal();
     }
 
     public List<Job> list(String state) {
         if (state != null && state.equals("dead")) {
-            return Storage.listDlq();
+            return Storage.store().listDlq();
+        }
+        return Storage.store().listJobs(state);
+    }
+
+    /**
+     * Writes the listing as JSON while rows are read, so memory use does not grow with the
+     * result. Unpaged queries produce a bare array; paged ones ({@code limit > 0}) are wrapped
+     * as {@code {"jobs": [...], "next_cursor": ...}}.
+     */
+    public void streamJobs(Storage.JobQuery query, OutputStream out) throws IOException {
+        boolean paged = query.limit > 0;
+        try (JsonGenerator gen = JSON.getFactory().createGenerator(out)) {
+            gen.useDefaultPrettyPrinter();
+            if (paged) {
+                gen.writeStartObject();
+                gen.writeFieldName("jobs");
+            }
+            gen.writeStartArray();
+            String next;
+            try {
+                next = Storage.streamJobs(query, job -> {
+                    try {
+                        gen.writeObject(job);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            gen.writeEndArray();
+            if (paged) {
+                gen.writeStringField("next_cursor", next);
+                gen.writeEndObject();
+            }
         }
-        return Storage.listJobs(state);
+        out.flush();
     }
 
     public Storage.Counts status() { 
-        Storage.Counts c = Storage.counts();
+        Storage.Counts c = Storage.store().counts();
         c.active_workers = Worker.activeWorkers();
         return c;
     }
@@ -0,0 +1,94 @@
+package com.queuectl;
+
+import com.queuectl.Models.Job;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deficit round-robin over named queues, used by {@link Storage#fetchAndLockBatch} once any
+ * queue is configured. Each turn a queue may claim up to its weight in jobs, so queues with work
+ * are served in proportion to their weights however deep any one backlog is; priority orders
+ * jobs within a queue only. A queue with {@code max_concurrency} jobs processing is passed over
+ * until some finish. A claim that fills up mid-turn leaves the rest of the turn to the next one.
+ *
+ * <p>Turn state is per process and per database, and is only touched under that database's
+ * write lock.
+ */
+final class QueueScheduler {
+    /** Per-queue settings; queues without one get weight 1 and no concurrency limit. */
+    static final class Policy {
+        static final Policy DEFAULT = new Policy(0, 1);
+
+        /** Most jobs of the queue processing at once across all workers; 0 means no limit. */
+        final int maxConcurrency;
+        final int weight;
+
+        Policy(int maxConcurrency, int weight) {
+            this.maxConcurrency = Math.max(0, maxConcurrency);
+            this.weight = Math.max(1, weight);
+        }
+    }
+
+    @FunctionalInterface
+    interface QueueClaim {
+        /** Claims up to {@code n} due jobs from {@code queue}, in claim order. */
+        List<Job> claim(String queue, int n) throws SQLException;
+    }
+
+    private final Map<String, Policy> policies;
+    /** Queue whose turn comes next; the ring resumes at the first queue name not below it. */
+    private String next = "";
+    /** Jobs {@link #next} may still claim in a turn that a full batch cut short; 0 starts a new turn. */
+    private int carry;
+
+    QueueScheduler(Map<String, Policy> policies) {
+        this.policies = policies;
+    }
+
+    Policy policy(String queue) {
+        return policies.getOrDefault(queue, Policy.DEFAULT);
+    }
+
+    /**
+     * Claims up to {@code n} jobs across {@code queues} (the queues with pending jobs, sorted by
+     * name), going round them until the batch is full or none can claim more.
+     *
+     * @param running jobs processing per queue; updated with what this call claims
+     */
+    List<Job> claim(int n, List<String> queues, Map<String, Integer> running, QueueClaim claim) throws SQLException {
+        List<Job> out = new ArrayList<>();
+        List<String> ring = new ArrayList<>(queues);
+        int start = Collections.binarySearch(ring, next);
+        Collections.rotate(ring, -(start >= 0 ? start : -start - 1));
+        int resumeCredit = !ring.isEmpty() && ring.get(0).equals(next) ? carry : 0;
+        carry = 0;
+        while (out.size() < n && !ring.isEmpty()) {
+            for (Iterator<String> it = ring.iterator(); it.hasNext() && out.size() < n; ) {
+                String queue = it.next();
+                Policy p = policy(queue);
+                int credit = resumeCredit > 0 ? resumeCredit : p.weight;
+                resumeCredit = 0;
+                int room = p.maxConcurrency > 0 ? p.maxConcurrency - running.getOrDefault(queue, 0) : Integer.MAX_VALUE;
+                int take = Math.min(Math.min(credit, room), n - out.size());
+                List<Job> got = take > 0 ? claim.claim(queue, take) : List.of();
+                out.addAll(got);
+                running.merge(queue, got.size(), Integer::sum);
+                // Out of due jobs or at its limit: the queue sits out the remaining rounds.
+                if (got.size() < take || got.size() >= room) it.remove();
+                if (got.size() == take && take < credit && got.size() < room) {
+                    next = queue;
+                    carry = credit - take;
+                    return out;
+                }
+                // "\0" sorts straight after the name, so the next turn goes to the queue after this one.
+                next = queue + "\0";
+            }
+        }
+        return out;
+    }
+}
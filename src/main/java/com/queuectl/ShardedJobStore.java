@@ -0,0 +1,304 @@
+package com.queuectl;
+
+import com.queuectl.Models.Job;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * {@link JobStore} over {@code shard_count} SQLite files, each with its own writer lock, so
+ * producers and workers on different shards no longer serialize on one database. A job in a
+ * named queue goes to the shard its queue name hashes to, keeping the queue in one file; jobs
+ * in the default queue are spread by id. An id that already exists stays in its shard when it is
+ * enqueued again, whatever its queue. Workers claim from every shard, starting at the next
+ * shard in turn ({@code shard_claim=round_robin}) or always at their own ({@code affinity}),
+ * and remember where each claimed job came from. Priority order holds within a shard.
+ *
+ * <p>The static methods merge the SQLite-only listings across shards; {@link Storage} routes to
+ * them when no shard is bound.
+ */
+public final class ShardedJobStore implements JobStore {
+    /** Rows fetched per shard per round when merging an unpaged listing. */
+    private static final int MERGE_PAGE = 1_000;
+    private static final Comparator<Job> LIST_ORDER = Storage.CLAIM_ORDER.thenComparing(j -> j.id);
+
+    private final SqliteJobStore[] shards;
+    /** First shard this process claims from under affinity; -1 rotates instead. */
+    private final int home;
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private final Map<String, Integer> claimedFrom = new ConcurrentHashMap<>();
+
+    public ShardedJobStore(int count, boolean affinity) {
+        shards = new SqliteJobStore[count];
+        for (int i = 0; i < count; i++) shards[i] = new SqliteJobStore(i);
+        home = affinity ? (int) (ProcessHandle.current().pid() % count) : -1;
+    }
+
+    /** The shard a job is written to: by queue name for named queues, by id otherwise. */
+    int shardFor(Job job) {
+        boolean named = job.queue != null && !job.queue.equals(Models.DEFAULT_QUEUE);
+        return Math.floorMod((named ? job.queue : job.id).hashCode(), shards.length);
+    }
+
+    /**
+     * Writes to the shard the id already lives in, if any, so re-enqueueing an id under another
+     * queue updates its row instead of leaving a second copy in the new queue's shard.
+     */
+    @Override
+    public void upsert(Job job) {
+        int home = shardFor(job);
+        int existing = locate(job.id, home);
+        shards[existing >= 0 ? existing : home].upsert(job);
+    }
+
+    @Override
+    public void upsertBatch(List<Job> jobs) {
+        List<String> ids = new ArrayList<>(jobs.size());
+        for (Job j : jobs) ids.add(j.id);
+        Map<String, Integer> existing = new HashMap<>();
+        for (int i = 0; i < shards.length; i++) {
+            for (String id : Storage.onShard(i, () -> Storage.knownIds(ids))) existing.putIfAbsent(id, i);
+        }
+        Map<Integer, List<Job>> byShard = new HashMap<>();
+        for (Job j : jobs) byShard.computeIfAbsent(existing.getOrDefault(j.id, shardFor(j)), k -> new ArrayList<>()).add(j);
+        byShard.forEach((shard, batch) -> shards[shard].upsertBatch(batch));
+    }
+
+    /**
+     * Claims from the starting shard first and moves on only while the batch is short. Live log
+     * names include the shard, since row ids repeat across files.
+     */
+    @Override
+    public List<Job> fetchAndLockBatch(int n, String owner, int leaseSeconds, String liveLogPrefix) {
+        int start = home >= 0 ? home : Math.floorMod(nextShard.getAndIncrement(), shards.length);
+        List<Job> out = new ArrayList<>();
+        for (int k = 0; k < shards.length && out.size() < Math.max(1, n); k++) {
+            int shard = (start + k) % shards.length;
+            String prefix = liveLogPrefix == null ? null : liveLogPrefix + "s" + shard + "-";
+            for (Job j : shards[shard].fetchAndLockBatch(Math.max(1, n) - out.size(), owner, leaseSeconds, prefix)) {
+                claimedFrom.put(j.id, shard);
+                out.add(j);
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public String completeAttempt(Storage.Attempt attempt) {
+        int shard = claimedShard(attempt.id);
+        return shard < 0 ? null : shards[shard].completeAttempt(attempt);
+    }
+
+    /**
+     * Renews on every shard. A shard that renews fewer leases than this process remembers claiming
+     * there has lost some (reclaimed by a reaper, dead-lettered by another process), so the
+     * entries for jobs it no longer leases are dropped.
+     */
+    @Override
+    public int renewLeases(String owner, int leaseSeconds) {
+        int[] held = new int[shards.length];
+        for (int shard : claimedFrom.values()) held[shard]++;
+        int renewed = 0;
+        for (int shard = 0; shard < shards.length; shard++) {
+            int n = shards[shard].renewLeases(owner, leaseSeconds);
+            if (n < held[shard]) forgetLostClaims(shard, owner);
+            renewed += n;
+        }
+        return renewed;
+    }
+
+    @Override
+    public int reclaimExpiredLeases(int leaseSeconds) {
+        int reclaimed = 0;
+        for (SqliteJobStore s : shards) reclaimed += s.reclaimExpiredLeases(leaseSeconds);
+        return reclaimed;
+    }
+
+    @Override
+    public void releaseClaims(List<String> ids) {
+        Map<Integer, List<String>> byShard = new HashMap<>();
+        for (String id : ids) {
+            int shard = claimedShard(id);
+            if (shard >= 0) byShard.computeIfAbsent(shard, k -> new ArrayList<>()).add(id);
+        }
+        byShard.forEach((shard, batch) -> shards[shard].releaseClaims(batch));
+    }
+
+    @Override
+    public Instant nextPendingRunAt() {
+        Instant earliest = null;
+        for (SqliteJobStore s : shards) {
+            Instant next = s.nextPendingRunAt();
+            if (next != null && (earliest == null || next.isBefore(earliest))) earliest = next;
+        }
+        return earliest;
+    }
+
+    @Override
+    public Job getJob(String id) {
+        int shard = locate(id);
+        return shard < 0 ? null : shards[shard].getJob(id);
+    }
+
+    @Override
+    public List<Job> listJobs(String state) {
+        List<Job> out = new ArrayList<>();
+        for (SqliteJobStore s : shards) out.addAll(s.listJobs(state));
+        out.sort(Storage.CLAIM_ORDER);
+        return out;
+    }
+
+    @Override
+    public List<Job> listDlq() {
+        List<Job> out = new ArrayList<>();
+        for (SqliteJobStore s : shards) out.addAll(s.listDlq());
+        out.sort(Comparator.comparingLong(j -> j.created_at));
+        return out;
+    }
+
+    @Override
+    public void moveToDlq(String id) {
+        int shard = locate(id);
+        if (shard >= 0) shards[shard].moveToDlq(id);
+    }
+
+    @Override
+    public boolean retryFromDlq(String id) {
+        for (SqliteJobStore s : shards) {
+            if (s.retryFromDlq(id)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int retryDlqBatch(Storage.DlqFilter filter, int limit) {
+        int moved = 0;
+        for (SqliteJobStore s : shards) {
+            if (moved == limit) break;
+            moved += s.retryDlqBatch(filter, limit - moved);
+        }
+        return moved;
+    }
+
+    @Override
+    public Storage.Counts counts() {
+        Storage.Counts total = null;
+        for (SqliteJobStore s : shards) total = add(total, s.counts());
+        return Storage.finishCounts(total);
+    }
+
+    /** A claim committed between the lookup and the sweep may be dropped too; it then costs a {@link #locate}. */
+    private void forgetLostClaims(int shard, String owner) {
+        Set<String> leased = Storage.onShard(shard, () -> Storage.leasedIds(owner));
+        claimedFrom.entrySet().removeIf(e -> e.getValue() == shard && !leased.contains(e.getKey()));
+    }
+
+    /** Jobs this process remembers claiming. Used by tests. */
+    int rememberedClaims() {
+        return claimedFrom.size();
+    }
+
+    /** Where a job claimed by this process lives; falls back to a lookup for other callers' claims. */
+    private int claimedShard(String id) {
+        Integer shard = claimedFrom.remove(id);
+        return shard != null ? shard : locate(id);
+    }
+
+    /** Probes shards starting from the id's own, since a named queue may have sent it elsewhere. */
+    private int locate(String id) {
+        return locate(id, Math.floorMod(id.hashCode(), shards.length));
+    }
+
+    private int locate(String id, int first) {
+        for (int k = 0; k < shards.length; k++) {
+            int shard = (first + k) % shards.length;
+            if (shards[shard].getJob(id) != null) return shard;
+        }
+        return -1;
+    }
+
+    static Storage.Counts add(Storage.Counts a, Storage.Counts b) {
+        if (a == null) return b;
+        a.pending += b.pending;
+        a.processing += b.processing;
+        a.completed += b.completed;
+        a.failed += b.failed;
+        a.dead += b.dead;
+        a.archived += b.archived;
+        a.run_count += b.run_count;
+        a.success_count += b.success_count;
+        a.failure_count += b.failure_count;
+        a.total_runtime_ms += b.total_runtime_ms;
+        if (b.last_finished_at != null && (a.last_finished_at == null || b.last_finished_at > a.last_finished_at)) {
+            a.last_finished_at = b.last_finished_at;
+        }
+        return a;
+    }
+
+    /**
+     * {@link Storage#streamJobs} over every shard. The cursor is a row key, not a position, so
+     * the same cursor applies to each shard: a page takes up to {@code limit} rows after it from
+     * every shard and keeps the first {@code limit} of their merge. Unpaged listings walk the
+     * same way in pages of {@link #MERGE_PAGE}, so memory stays bounded.
+     */
+    static String streamJobs(int shardCount, Storage.JobQuery query, Consumer<Job> sink) {
+        int pageSize = query.limit > 0 ? query.limit : MERGE_PAGE;
+        String cursor = query.cursor;
+        while (true) {
+            List<Job> merged = new ArrayList<>();
+            boolean more = false;
+            for (int shard = 0; shard < shardCount; shard++) {
+                Storage.JobQuery q = new Storage.JobQuery();
+                q.state = query.state;
+                q.since = query.since;
+                q.cursor = cursor;
+                q.limit = pageSize;
+                more |= Storage.onShard(shard, () -> Storage.streamJobs(q, merged::add)) != null;
+            }
+            merged.sort(LIST_ORDER);
+            more |= merged.size() > pageSize;
+            List<Job> page = merged.subList(0, Math.min(pageSize, merged.size()));
+            page.forEach(sink);
+            if (!more || page.isEmpty()) return null;
+            cursor = Storage.encodeCursor(page.get(page.size() - 1));
+            if (query.limit > 0) return cursor;
+        }
+    }
+
+    static List<Job> findByIdPrefix(int shardCount, String prefix) {
+        List<Job> out = new ArrayList<>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            out.addAll(Storage.onShard(shard, () -> Storage.findByIdPrefix(prefix)));
+        }
+        return out;
+    }
+
+    static String jobLogPath(int shardCount, String jobId) {
+        for (int shard = 0; shard < shardCount; shard++) {
+            String path = Storage.onShard(shard, () -> Storage.jobLogPath(jobId));
+            if (path != null) return path;
+        }
+        return null;
+    }
+
+    static Storage.StatsCheck checkStats(int shardCount, boolean repair) {
+        Storage.StatsCheck all = new Storage.StatsCheck();
+        all.consistent = true;
+        for (int shard = 0; shard < shardCount; shard++) {
+            Storage.StatsCheck check = Storage.onShard(shard, () -> Storage.checkStats(repair));
+            all.consistent &= check.consistent;
+            all.repaired |= check.repaired;
+            all.stored = add(all.stored, check.stored);
+            all.recomputed = add(all.recomputed, check.recomputed);
+        }
+        return all;
+    }
+}
@@ -0,0 +1,109 @@
+package com.queuectl;
+
+import com.queuectl.Models.Job;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * {@link JobStore} over the SQLite database behind {@link Storage}; the default engine. Built
+ * with a shard number, every call runs against that shard's file (see {@link ShardedJobStore}).
+ */
+public final class SqliteJobStore implements JobStore {
+    private final int shard;
+
+    public SqliteJobStore() {
+        this(-1);
+    }
+
+    public SqliteJobStore(int shard) {
+        this.shard = shard;
+    }
+
+    private <T> T on(Supplier<T> work) {
+        return shard < 0 ? work.get() : Storage.onShard(shard, work);
+    }
+
+    private void run(Runnable work) {
+        on(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    @Override
+    public void upsert(Job job) {
+        run(() -> Storage.upsert(job));
+    }
+
+    @Override
+    public void upsertBatch(List<Job> jobs) {
+        run(() -> Storage.upsertBatch(jobs));
+    }
+
+    @Override
+    public List<Job> fetchAndLockBatch(int n, String owner, int leaseSeconds, String liveLogPrefix) {
+        return on(() -> Storage.fetchAndLockBatch(n, owner, leaseSeconds, liveLogPrefix));
+    }
+
+    @Override
+    public String completeAttempt(Storage.Attempt attempt) {
+        return on(() -> Storage.completeAttempt(attempt));
+    }
+
+    @Override
+    public int renewLeases(String owner, int leaseSeconds) {
+        return on(() -> Storage.renewLeases(owner, leaseSeconds));
+    }
+
+    @Override
+    public int reclaimExpiredLeases(int leaseSeconds) {
+        return on(() -> Storage.reclaimExpiredLeases(leaseSeconds));
+    }
+
+    @Override
+    public void releaseClaims(List<String> ids) {
+        run(() -> Storage.releaseClaims(ids));
+    }
+
+    @Override
+    public Instant nextPendingRunAt() {
+        return on(Storage::nextPendingRunAt);
+    }
+
+    @Override
+    public Job getJob(String id) {
+        return on(() -> Storage.getJob(id));
+    }
+
+    @Override
+    public List<Job> listJobs(String state) {
+        return on(() -> Storage.listJobs(state));
+    }
+
+    @Override
+    public List<Job> listDlq() {
+        return on(Storage::listDlq);
+    }
+
+    @Override
+    public void moveToDlq(String id) {
+        run(() -> Storage.moveToDlq(id));
+    }
+
+    @Override
+    public boolean retryFromDlq(String id) {
+        return on(() -> Storage.retryFromDlq(id));
+    }
+
+    @Override
+    public int retryDlqBatch(Storage.DlqFilter filter, int limit) {
+        return on(() -> Storage.retryDlqBatch(filter, limit));
+    }
+
+    @Override
+    public Storage.Counts counts() {
+        return on(Storage::counts);
+    }
+}
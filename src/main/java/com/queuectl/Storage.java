@@ -1,196 +1,603 @@
 package com.queuectl;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.queuectl.ConnectionPool.PooledConnection;
 import com.queuectl.Models.Job;
 
 import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class Storage {
-    private static final String DB_URL = "jdbc:sqlite:queue.db?busy_timeout=5000";
+    private static final String DEFAULT_DB_PATH = "queue.db";
+    public static final long DEFAULT_COMMIT_MAX_DELAY_MS = 2;
 
-    public static Connection getConn() throws SQLException {
-        Connection c = DriverManager.getConnection(DB_URL);
-        try (Statement s = c.createStatement()) {
-            s.execute("PRAGMA journal_mode=WAL;");
-            s.execute("PRAGMA foreign_keys=ON;");
-            s.execute("PRAGMA busy_timeout=5000;");
-        }
-        return c;
+    private static String dbPath = System.getProperty("queuectl.db", DEFAULT_DB_PATH);
+    /** Open pools by shard; shard 0 is {@code dbPath} itself. */
+    private static final Map<Integer, ConnectionPool> pools = new HashMap<>();
+    /** The shard pool {@link #onShard} bound to this thread; null means shard 0. */
+    private static final ThreadLocal<ConnectionPool> BOUND = new ThreadLocal<>();
+    private static final Map<ConnectionPool, GroupCommit> commits = new HashMap<>();
+    /** Deficit round-robin state per database; only used while {@link #queuePolicies} is non-empty. */
+    private static final Map<ConnectionPool, QueueScheduler> schedulers = new ConcurrentHashMap<>();
+    private static volatile Map<String, QueueScheduler.Policy> queuePolicies = Map.of();
+    private static long commitMaxDelayMs = DEFAULT_COMMIT_MAX_DELAY_MS;
+    private static String synchronous;
+    private static volatile JobStore store;
+    private static volatile int shardCount;
+
+    static ConnectionPool pool() {
+        ConnectionPool bound = BOUND.get();
+        return bound != null ? bound : shardPool(0);
     }
 
-    public static void init() {
-        try (Connection c = getConn(); Statement s = c.createStatement()) {
-            s.executeUpdate(
-                "CREATE TABLE IF NOT EXISTS jobs (" +
-                    "id TEXT PRIMARY KEY, " +
-                    "command TEXT, " +
-                    "state TEXT, " +
-                    "attempts INTEGER, " +
-                    "max_retries INTEGER, " +
-                    "priority INTEGER DEFAULT 0, " +
-                    "run_at TEXT, " +
-                    "timeout_seconds INTEGER DEFAULT 0, " +
-                    "last_exit_code INTEGER, " +
-                    "last_duration_ms INTEGER, " +
-                    "last_output_path TEXT, " +
-                    "run_count INTEGER DEFAULT 0, " +
-                    "success_count INTEGER DEFAULT 0, " +
-                    "failure_count INTEGER DEFAULT 0, " +
-                    "total_runtime_ms INTEGER DEFAULT 0, " +
-                    "last_finished_at TEXT, " +
-                    "created_at TEXT, " +
-                    "updated_at TEXT)"
-            );
-            s.executeUpdate(
-                "CREATE TABLE IF NOT EXISTS dead_letter_jobs (" +
-                    "id TEXT PRIMARY KEY, " +
-                    "command TEXT, " +
-                    "state TEXT, " +
-                    "attempts INTEGER, " +
-                    "max_retries INTEGER, " +
-                    "priority INTEGER DEFAULT 0, " +
-                    "run_at TEXT, " +
-                    "timeout_seconds INTEGER DEFAULT 0, " +
-                    "last_exit_code INTEGER, " +
-                    "last_duration_ms INTEGER, " +
-                    "last_output_path TEXT, " +
-                    "run_count INTEGER DEFAULT 0, " +
-                    "success_count INTEGER DEFAULT 0, " +
-                    "failure_count INTEGER DEFAULT 0, " +
-                    "total_runtime_ms INTEGER DEFAULT 0, " +
-                    "last_finished_at TEXT, " +
-                    "created_at TEXT, " +
-                    "updated_at TEXT)"
-            );
-            ensureColumn(c, "jobs", "priority", "INTEGER DEFAULT 0");
-            ensureColumn(c, "jobs", "run_at", "TEXT");
-            ensureColumn(c, "jobs", "timeout_seconds", "INTEGER DEFAULT 0");
-            ensureColumn(c, "jobs", "last_exit_code", "INTEGER");
-            ensureColumn(c, "jobs", "last_duration_ms", "INTEGER");
-            ensureColumn(c, "jobs", "last_output_path", "TEXT");
-            ensureColumn(c, "jobs", "run_count", "INTEGER DEFAULT 0");
-            ensureColumn(c, "jobs", "success_count", "INTEGER DEFAULT 0");
-            ensureColumn(c, "jobs", "failure_count", "INTEGER DEFAULT 0");
-            ensureColumn(c, "jobs", "total_runtime_ms", "INTEGER DEFAULT 0");
-            ensureColumn(c, "jobs", "last_finished_at", "TEXT");
-            ensureColumn(c, "dead_letter_jobs", "priority", "INTEGER DEFAULT 0");
-            ensureColumn(c, "dead_letter_jobs", "run_at", "TEXT");
-            ensureColumn(c, "dead_letter_jobs", "timeout_seconds", "INTEGER DEFAULT 0");
-            ensureColumn(c, "dead_letter_jobs", "last_exit_code", "INTEGER");
-            ensureColumn(c, "dead_letter_jobs", "last_duration_ms", "INTEGER");
-            ensureColumn(c, "dead_letter_jobs", "last_output_path", "TEXT");
-            ensureColumn(c, "dead_letter_jobs", "run_count", "INTEGER DEFAULT 0");
-            ensureColumn(c, "dead_letter_jobs", "success_count", "INTEGER DEFAULT 0");
-            ensureColumn(c, "dead_letter_jobs", "failure_count", "INTEGER DEFAULT 0");
-            ensureColumn(c, "dead_letter_jobs", "total_runtime_ms", "INTEGER DEFAULT 0");
-            ensureColumn(c, "dead_letter_jobs", "last_finished_at", "TEXT");
+    private static synchronized ConnectionPool shardPool(int shard) {
+        ConnectionPool existing = pools.get(shard);
+        if (existing != null) return existing;
+        ConnectionPool created = new ConnectionPool(shardPath(shard));
+        try {
+            created.write(pc -> {
+                Migrations.migrate(pc.connection());
+                return null;
+            });
+            if (synchronous != null) created.setSynchronous(synchronous);
         } catch (SQLException e) {
+            created.close();
             throw new RuntimeException(e);
         }
+        pools.put(shard, created);
+        return created;
     }
 
-    private static void ensureColumn(Connection c, String table, String column, String definition) throws SQLException {
-        boolean exists = false;
-        try (Statement check = c.createStatement(); ResultSet rs = check.executeQuery("PRAGMA table_info(" + table + ")")) {
-            while (rs.next()) {
-                if (column.equalsIgnoreCase(rs.getString("name"))) {
-                    exists = true;
-                    break;
+    /** {@code queue.db} for shard 0, then {@code queue-1.db}, {@code queue-2.db}, ... next to it. */
+    static String shardPath(int shard) {
+        if (shard == 0) return dbPath;
+        return dbPath.endsWith(".db") ? dbPath.substring(0, dbPath.length() - 3) + "-" + shard + ".db" : dbPath + "-" + shard;
+    }
+
+    /**
+     * Shard files numbered {@code count} or above that still hold unfinished jobs or DLQ rows,
+     * with how many. They are left behind when shard_count is lowered, and no store reads them.
+     */
+    static Map<String, Integer> strandedShards(int count) {
+        Map<String, Integer> out = new LinkedHashMap<>();
+        for (int shard = Math.max(1, count); new File(shardPath(shard)).exists(); shard++) {
+            try (Connection c = DriverManager.getConnection("jdbc:sqlite:" + shardPath(shard) + "?busy_timeout=5000");
+                 Statement s = c.createStatement();
+                 ResultSet tables = s.executeQuery("SELECT COUNT(*) FROM sqlite_master WHERE type='table' AND name IN ('jobs', 'dead_letter_jobs')")) {
+                if (tables.getInt(1) < 2) continue;
+                try (Statement q = c.createStatement();
+                     ResultSet rs = q.executeQuery("SELECT (SELECT COUNT(*) FROM jobs WHERE state <> 'completed') + (SELECT COUNT(*) FROM dead_letter_jobs)")) {
+                    if (rs.getInt(1) > 0) out.put(shardPath(shard), rs.getInt(1));
                 }
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Runs {@code work} with every Storage method on this thread pointed at shard {@code shard}'s
+     * database. Calls made outside any binding go to shard 0 or, for listings, fan out over all.
+     */
+    public static <T> T onShard(int shard, Supplier<T> work) {
+        ConnectionPool previous = BOUND.get();
+        BOUND.set(shardPool(shard));
+        try {
+            return work.get();
+        } finally {
+            if (previous != null) BOUND.set(previous); else BOUND.remove();
+        }
+    }
+
+    /** Number of database files jobs are spread over: {@code shard_count}, or 1 without a config file. */
+    public static int shardCount() {
+        int n = shardCount;
+        if (n == 0) {
+            n = Config.CONFIG_FILE.exists() ? Math.max(1, Config.load().get("shard_count").asInt(1)) : 1;
+            shardCount = n;
+        }
+        return n;
+    }
+
+    /** Overrides {@code shard_count} for this process and resets the store. Used by tests and benchmarks. */
+    static synchronized void useShards(int count) {
+        shardCount = Math.max(1, count);
+        store = null;
+    }
+
+    /** True when a listing call should merge every shard rather than read the bound one. */
+    private static boolean fanOut() {
+        return BOUND.get() == null && shardCount() > 1;
+    }
+
+    private static synchronized GroupCommit commits() {
+        return commits.computeIfAbsent(pool(), p -> new GroupCommit(p, commitMaxDelayMs));
+    }
+
+    /**
+     * Sets how long the group-commit writer holds a batch open for more transitions, and the
+     * writer connection's {@code PRAGMA synchronous} (null keeps SQLite's default, FULL).
+     */
+    public static synchronized void configureCommits(long maxDelayMs, String synchronousMode) {
+        if (synchronousMode != null) {
+            try {
+                pool();
+                for (ConnectionPool p : pools.values()) p.setSynchronous(synchronousMode);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
             }
         }
-        if (!exists) {
-            try (Statement alter = c.createStatement()) {
-                alter.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        synchronous = synchronousMode;
+        commitMaxDelayMs = Math.max(0, maxDelayMs);
+        for (GroupCommit c : commits.values()) c.close();
+        commits.clear();
+    }
+
+    /**
+     * Sets per-queue weights and concurrency limits. With any queue configured, claims go round
+     * the queues by deficit round-robin ({@link QueueScheduler}) instead of taking the globally
+     * highest priority; an empty map restores the single global claim order.
+     */
+    static void configureQueues(Map<String, QueueScheduler.Policy> policies) {
+        queuePolicies = Map.copyOf(policies);
+        schedulers.clear();
+    }
+
+    /**
+     * The engine behind queue operations: this SQLite database, or {@code shard_count} of them,
+     * unless {@link #useStore} installed another. The in-memory engine is private to one JVM, so
+     * only code that produces and consumes in the same process can use it ({@code bench
+     * --in-process}, tests, benchmarks); it cannot be picked for the separate CLI processes.
+     */
+    public static JobStore store() {
+        JobStore s = store;
+        if (s != null) return s;
+        synchronized (Storage.class) {
+            if (store == null) {
+                if (System.getProperty("queuectl.store") != null) {
+                    throw new IllegalStateException("queuectl.store is no longer supported: enqueue, workers and the dashboard run as " +
+                        "separate processes and would not share an in-memory queue; use 'queuectl bench --in-process' instead");
+                }
+                for (Map.Entry<String, Integer> e : strandedShards(shardCount()).entrySet()) {
+                    System.err.println("Warning: " + e.getKey() + " holds " + e.getValue() + " unfinished job(s) but shard_count is " +
+                        shardCount() + ", so nothing will run them; raise shard_count again to drain it");
+                }
+                if (shardCount() > 1) {
+                    boolean affinity = Config.CONFIG_FILE.exists() && "affinity".equals(Config.load().get("shard_claim").asText());
+                    store = new ShardedJobStore(shardCount(), affinity);
+                } else {
+                    store = new SqliteJobStore();
+                }
             }
+            return store;
         }
     }
 
+    /** Replaces the engine returned by {@link #store()}. Used by {@code bench --in-process}, tests and benchmarks. */
+    static synchronized void useStore(JobStore s) {
+        store = s;
+    }
+
+    /**
+     * Points this process at another database file, closing the current pool, and returns the
+     * previous path. Used by tests and benchmarks.
+     */
+    static synchronized String useDatabase(String path) {
+        String previous = dbPath;
+        for (GroupCommit c : commits.values()) c.close();
+        commits.clear();
+        schedulers.clear();
+        for (ConnectionPool p : pools.values()) p.close();
+        pools.clear();
+        dbPath = path;
+        return previous;
+    }
+
+    /** Opens an unpooled connection; the caller must close it. */
+    public static Connection getConn() throws SQLException {
+        return pool().open();
+    }
+
+    /** Opens the pool, which brings the schema up to date once per process. */
+    public static void init() {
+        pool();
+    }
+
+    private static final String UPSERT_SQL =
+        "INSERT INTO jobs (id, command, state, attempts, max_retries, priority, run_at, timeout_seconds, last_exit_code, last_duration_ms, last_output_path, run_count, success_count, failure_count, total_runtime_ms, last_finished_at, created_at, updated_at, queue) " +
+            "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?) " +
+            "ON CONFLICT(id) DO UPDATE SET " +
+            "command=excluded.command, " +
+            "state=excluded.state, " +
+            "attempts=excluded.attempts, " +
+            "max_retries=excluded.max_retries, " +
+            "priority=excluded.priority, " +
+            "run_at=excluded.run_at, " +
+            "timeout_seconds=excluded.timeout_seconds, " +
+            "created_at=excluded.created_at, " +
+            "updated_at=excluded.updated_at, " +
+            "queue=excluded.queue";
+
     public static void upsert(Job j) {
-        init();
-        try (Connection c = getConn(); PreparedStatement ps = c.prepareStatement(
-            "INSERT INTO jobs (id, command, state, attempts, max_retries, priority, run_at, timeout_seconds, last_exit_code, last_duration_ms, last_output_path, run_count, success_count, failure_count, total_runtime_ms, last_finished_at, created_at, updated_at) " +
-                "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?) " +
-                "ON CONFLICT(id) DO UPDATE SET " +
-                "command=excluded.command, " +
-                "state=excluded.state, " +
-                "attempts=excluded.attempts, " +
-                "max_retries=excluded.max_retries, " +
-                "priority=excluded.priority, " +
-                "run_at=excluded.run_at, " +
-                "timeout_seconds=excluded.timeout_seconds, " +
-                "created_at=excluded.created_at, " +
-                "updated_at=excluded.updated_at"
-        )) {
-            ps.setString(1, j.id);
-            ps.setString(2, j.command);
-            ps.setString(3, j.state);
-            ps.setInt(4, j.attempts);
-            ps.setInt(5, j.max_retries);
-            ps.setInt(6, j.priority);
-            String runAt = j.run_at != null ? j.run_at : Models.nowIso();
-            ps.setString(7, runAt);
-            ps.setInt(8, j.timeout_seconds);
-            if (j.last_exit_code != null) ps.setInt(9, j.last_exit_code); else ps.setNull(9, Types.INTEGER);
-            if (j.last_duration_ms != null) ps.setLong(10, j.last_duration_ms); else ps.setNull(10, Types.BIGINT);
-            if (j.last_output_path != null) ps.setString(11, j.last_output_path); else ps.setNull(11, Types.VARCHAR);
-            ps.setInt(12, j.run_count != null ? j.run_count : 0);
-            ps.setInt(13, j.success_count != null ? j.success_count : 0);
-            ps.setInt(14, j.failure_count != null ? j.failure_count : 0);
-            ps.setLong(15, j.total_runtime_ms != null ? j.total_runtime_ms : 0L);
-            if (j.last_finished_at != null) ps.setString(16, j.last_finished_at); else ps.setNull(16, Types.VARCHAR);
-            ps.setString(17, j.created_at);
-            ps.setString(18, j.updated_at);
-            ps.executeUpdate();
+        try {
+            pool().write(pc -> {
+                PreparedStatement ps = pc.prepare(UPSERT_SQL);
+                bindUpsert(ps, j);
+                ps.executeUpdate();
+                return null;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /** Inserts or updates all {@code jobs} as one JDBC batch inside a single transaction. */
+    public static void upsertBatch(List<Job> jobs) {
+        if (jobs.isEmpty()) return;
+        try {
+            pool().writeTx(pc -> {
+                PreparedStatement ps = pc.prepare(UPSERT_SQL);
+                for (Job j : jobs) {
+                    bindUpsert(ps, j);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void bindUpsert(PreparedStatement ps, Job j) throws SQLException {
+        ps.setString(1, j.id);
+        ps.setString(2, j.command);
+        ps.setString(3, j.state);
+        ps.setInt(4, j.attempts);
+        ps.setInt(5, j.max_retries);
+        ps.setInt(6, j.priority);
+        ps.setLong(7, j.run_at);
+        ps.setInt(8, j.timeout_seconds);
+        if (j.last_exit_code != null) ps.setInt(9, j.last_exit_code); else ps.setNull(9, Types.INTEGER);
+        if (j.last_duration_ms != null) ps.setLong(10, j.last_duration_ms); else ps.setNull(10, Types.BIGINT);
+        if (j.last_output_path != null) ps.setString(11, j.last_output_path); else ps.setNull(11, Types.VARCHAR);
+        ps.setInt(12, j.run_count != null ? j.run_count : 0);
+        ps.setInt(13, j.success_count != null ? j.success_count : 0);
+        ps.setInt(14, j.failure_count != null ? j.failure_count : 0);
+        ps.setLong(15, j.total_runtime_ms != null ? j.total_runtime_ms : 0L);
+        if (j.last_finished_at != null) ps.setLong(16, j.last_finished_at); else ps.setNull(16, Types.BIGINT);
+        ps.setLong(17, j.created_at);
+        ps.setLong(18, j.updated_at);
+        ps.setString(19, j.queue != null ? j.queue : Models.DEFAULT_QUEUE);
+    }
+
+    /** Lease length used by the no-argument claim methods; workers pass their configured lease_seconds. */
+    public static final int DEFAULT_LEASE_SECONDS = 60;
+    private static final String LEASE_OWNER = defaultLeaseOwner();
+
+    /**
+     * Claims the next due pending job in a single statement. The inner SELECT walks
+     * idx_jobs_pending in claim order and the outer UPDATE flips the row to processing,
+     * so selection and state transition happen under one write lock with no retry loop;
+     * SQLite's busy_timeout absorbs contention from other workers.
+     */
     public static Models.Job fetchAndLockNextPending() {
-        init();
-        int attempts = 0;
-        while (attempts < 20) { // retry up to ~2s total
-            attempts++;
-            try (Connection c = getConn()) {
-                String now = Models.nowIso();
-                String id = null;
-                try (PreparedStatement sel = c.prepareStatement("SELECT id FROM jobs WHERE state='pending' AND (run_at IS NULL OR run_at <= ?) ORDER BY priority DESC, run_at ASC, created_at ASC LIMIT 1")) {
-                    sel.setString(1, now);
-                    try (ResultSet rs = sel.executeQuery()) {
-                        if (!rs.next()) return null;
-                        id = rs.getString(1);
+        List<Models.Job> claimed = fetchAndLockBatch(1);
+        return claimed.isEmpty() ? null : claimed.get(0);
+    }
+
+    public static List<Models.Job> fetchAndLockBatch(int n) {
+        return fetchAndLockBatch(n, LEASE_OWNER, DEFAULT_LEASE_SECONDS);
+    }
+
+    /**
+     * Claims up to {@code n} due pending jobs in one UPDATE ... RETURNING round trip, leasing
+     * them to {@code owner} for {@code leaseSeconds}. RETURNING does not preserve the subquery
+     * order, so the result is re-sorted into claim order before being handed back.
+     */
+    public static List<Models.Job> fetchAndLockBatch(int n, String owner, int leaseSeconds) {
+        return fetchAndLockBatch(n, owner, leaseSeconds, null);
+    }
+
+    /**
+     * As {@link #fetchAndLockBatch(int, String, int)}, and when {@code liveLogPrefix} is set also
+     * points each claimed row's last_output_path at {@code <prefix><rowid>-<attempt>.log}, the file
+     * the attempt will write to, so its output can be followed before it finishes.
+     */
+    public static List<Models.Job> fetchAndLockBatch(int n, String owner, int leaseSeconds, String liveLogPrefix) {
+        long started = System.nanoTime();
+        long now = System.currentTimeMillis();
+        long expires = now + leaseSeconds * 1000L;
+        try {
+            List<Models.Job> out;
+            if (queuePolicies.isEmpty()) {
+                out = pool().write(pc -> claim(pc, CLAIM_SQL, null, Math.max(1, n), owner, expires, now, liveLogPrefix));
+            } else {
+                out = pool().writeImmediate(pc -> {
+                    QueueScheduler scheduler = schedulers.computeIfAbsent(pool(), p -> new QueueScheduler(queuePolicies));
+                    return scheduler.claim(Math.max(1, n), pendingQueues(pc), processingByQueue(pc),
+                        (queue, limit) -> claim(pc, CLAIM_QUEUE_SQL, queue, limit, owner, expires, now, liveLogPrefix));
+                });
+            }
+            Telemetry.CLAIMED.add(out.size());
+            return out;
+        } catch (SQLException e) {
+            if (isBusy(e)) return new ArrayList<>();
+            throw new RuntimeException(e);
+        } finally {
+            Telemetry.CLAIM_LATENCY.recordNanos(System.nanoTime() - started);
+        }
+    }
+
+    private static final String CLAIM_SET =
+        "UPDATE jobs SET state='processing', lease_owner=?1, lease_expires_at=?2, updated_at=?3, " +
+            "last_output_path=COALESCE(?4 || rowid || '-' || (attempts + 1) || '.log', last_output_path) ";
+    private static final String CLAIM_SQL = CLAIM_SET +
+        "WHERE id IN (SELECT id FROM jobs WHERE state='pending' AND (run_at IS NULL OR run_at <= ?3) " +
+        "ORDER BY priority DESC, run_at ASC, created_at ASC LIMIT ?5) AND state='pending' " +
+        "RETURNING *";
+    /** As {@link #CLAIM_SQL} within one queue, walking idx_jobs_pending_queue. */
+    private static final String CLAIM_QUEUE_SQL = CLAIM_SET +
+        "WHERE id IN (SELECT id FROM jobs WHERE state='pending' AND queue=?6 AND (run_at IS NULL OR run_at <= ?3) " +
+        "ORDER BY priority DESC, run_at ASC, created_at ASC LIMIT ?5) AND state='pending' " +
+        "RETURNING *";
+
+    private static List<Models.Job> claim(PooledConnection pc, String sql, String queue, int n, String owner, long expires, long now, String liveLogPrefix) throws SQLException {
+        PreparedStatement ps = pc.prepare(sql);
+        ps.setString(1, owner);
+        ps.setLong(2, expires);
+        ps.setLong(3, now);
+        ps.setString(4, liveLogPrefix);
+        ps.setInt(5, n);
+        if (queue != null) ps.setString(6, queue);
+        List<Models.Job> out = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) out.add(map(rs));
+        }
+        out.sort(CLAIM_ORDER);
+        return out;
+    }
+
+    /**
+     * Names of the queues with pending jobs, sorted. A loose index scan: each step seeks
+     * idx_jobs_pending_queue past the previous name, so the cost grows with the number of
+     * queues rather than the number of pending jobs.
+     */
+    private static List<String> pendingQueues(PooledConnection pc) throws SQLException {
+        PreparedStatement ps = pc.prepare(
+            "WITH RECURSIVE q(name) AS (" +
+                "SELECT MIN(queue) FROM jobs WHERE state='pending' " +
+                "UNION ALL SELECT (SELECT MIN(queue) FROM jobs WHERE state='pending' AND queue > q.name) FROM q WHERE q.name IS NOT NULL) " +
+                "SELECT name FROM q WHERE name IS NOT NULL"
+        );
+        List<String> out = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) out.add(rs.getString(1));
+        }
+        return out;
+    }
+
+    private static Map<String, Integer> processingByQueue(PooledConnection pc) throws SQLException {
+        PreparedStatement ps = pc.prepare("SELECT queue, COUNT(*) FROM jobs WHERE state='processing' GROUP BY queue");
+        Map<String, Integer> out = new HashMap<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) out.put(rs.getString(1), rs.getInt(2));
+        }
+        return out;
+    }
+
+    /** host:pid, identifying this process as a lease holder. */
+    public static String defaultLeaseOwner() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "localhost";
+        }
+        return host + ":" + ProcessHandle.current().pid();
+    }
+
+    /** Pushes out the lease on every job {@code owner} is processing; returns the number renewed. */
+    public static int renewLeases(String owner, int leaseSeconds) {
+        long expires = System.currentTimeMillis() + leaseSeconds * 1000L;
+        try {
+            return pool().write(pc -> {
+                PreparedStatement ps = pc.prepare("UPDATE jobs SET lease_expires_at=? WHERE lease_owner=? AND state='processing'");
+                ps.setLong(1, expires);
+                ps.setString(2, owner);
+                return ps.executeUpdate();
+            });
+        } catch (SQLException e) {
+            if (isBusy(e)) return 0;
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** The subset of {@code ids} this database holds in jobs, the DLQ or the archive. */
+    static Set<String> knownIds(List<String> ids) {
+        try {
+            return pool().read(pc -> {
+                PreparedStatement ps = pc.prepare(
+                    "SELECT 1 FROM jobs WHERE id=?1 UNION ALL SELECT 1 FROM dead_letter_jobs WHERE id=?1 " +
+                        "UNION ALL SELECT 1 FROM archived_jobs WHERE id=?1 LIMIT 1"
+                );
+                Set<String> out = new HashSet<>();
+                for (String id : ids) {
+                    ps.setString(1, id);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) out.add(id);
                     }
                 }
-                int updated;
-                try (PreparedStatement upd = c.prepareStatement("UPDATE jobs SET state='processing', updated_at=? WHERE id IN (SELECT id FROM jobs WHERE id=? AND state='pending')")) {
-                    upd.setString(1, now);
-                    upd.setString(2, id);
-                    updated = upd.executeUpdate();
-                }
-                if (updated != 1) {
-                    // another worker grabbed it; retry quickly
-                    sleepQuiet(50L);
-                    continue;
+                return out;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Ids of the jobs {@code owner} holds a lease on. */
+    static Set<String> leasedIds(String owner) {
+        try {
+            return pool().read(pc -> {
+                PreparedStatement ps = pc.prepare("SELECT id FROM jobs WHERE lease_owner=? AND state='processing'");
+                ps.setString(1, owner);
+                Set<String> out = new HashSet<>();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) out.add(rs.getString(1));
                 }
-                try (PreparedStatement get = c.prepareStatement("SELECT * FROM jobs WHERE id=?")) {
-                    get.setString(1, id);
-                    try (ResultSet jr = get.executeQuery()) {
-                        if (jr.next()) return map(jr);
-                        else return null;
+                return out;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns processing jobs whose lease has expired (their worker died or stalled) to the queue,
+     * counting the lost run as an attempt; jobs that have used up max_retries go to the DLQ instead.
+     * Rows claimed before leases existed have no expiry and are reclaimed once they have been
+     * processing for {@code leaseSeconds}.
+     *
+     * @return number of jobs reclaimed
+     */
+    public static int reclaimExpiredLeases(int leaseSeconds) {
+        long now = System.currentTimeMillis();
+        long legacyCutoff = now - leaseSeconds * 1000L;
+        int reclaimed;
+        try {
+            reclaimed = pool().writeTx(pc -> {
+                PreparedStatement find = pc.prepare(
+                    "SELECT id, attempts, max_retries FROM jobs WHERE state='processing' " +
+                        "AND (lease_expires_at < ? OR (lease_expires_at IS NULL AND updated_at < ?))"
+                );
+                find.setLong(1, now);
+                find.setLong(2, legacyCutoff);
+                List<String> requeue = new ArrayList<>();
+                List<String> exhausted = new ArrayList<>();
+                try (ResultSet rs = find.executeQuery()) {
+                    while (rs.next()) {
+                        (rs.getInt(2) + 1 >= rs.getInt(3) ? exhausted : requeue).add(rs.getString(1));
                     }
                 }
-            } catch (SQLException e) {
-                if (isBusy(e)) { sleepQuiet(100L); continue; }
-                throw new RuntimeException(e);
-            }
+                PreparedStatement update = pc.prepare(
+                    "UPDATE jobs SET state=?, attempts=attempts+1, lease_owner=NULL, lease_expires_at=NULL, run_at=?, updated_at=? " +
+                        "WHERE id=? AND state='processing'"
+                );
+                for (String id : requeue) bindReclaim(update, "pending", now, id);
+                for (String id : exhausted) bindReclaim(update, "failed", now, id);
+                update.executeBatch();
+                for (String id : exhausted) moveToDlq(pc, id);
+                return requeue.size() + exhausted.size();
+            });
+        } catch (SQLException e) {
+            if (isBusy(e)) return 0;
+            throw new RuntimeException(e);
         }
-        return null;
+        if (reclaimed > 0) Wakeup.signal();
+        return reclaimed;
+    }
+
+    private static void bindReclaim(PreparedStatement ps, String state, long now, String id) throws SQLException {
+        ps.setString(1, state);
+        ps.setLong(2, now);
+        ps.setLong(3, now);
+        ps.setString(4, id);
+        ps.addBatch();
+    }
+
+    /**
+     * Hands claimed-but-unstarted jobs back to the queue, e.g. the remainder of a
+     * worker's local batch when it shuts down.
+     */
+    public static void releaseClaims(List<String> ids) {
+        if (ids.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        try {
+            pool().writeTx(pc -> {
+                PreparedStatement ps = pc.prepare("UPDATE jobs SET state='pending', lease_owner=NULL, lease_expires_at=NULL, updated_at=? WHERE id=? AND state='processing'");
+                for (String id : ids) {
+                    ps.setLong(1, now);
+                    ps.setString(2, id);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        Wakeup.signal();
+    }
+
+    static final Comparator<Models.Job> CLAIM_ORDER = Comparator
+        .comparingInt((Models.Job j) -> j.priority).reversed()
+        .thenComparingLong(j -> j.run_at)
+        .thenComparingLong(j -> j.created_at);
+
+    /**
+     * Earliest run_at among pending jobs, or null when nothing is pending. Served by
+     * idx_jobs_pending_run_at so idle workers can sleep exactly until the next job is due.
+     */
+    public static Instant nextPendingRunAt() {
+        try {
+            Long next = pool().read(pc -> {
+                // A queue at its max_concurrency cannot be claimed from however due its jobs are;
+                // counting them would have idle workers retry the claim in a tight loop.
+                List<String> full = fullQueues(pc);
+                StringBuilder sql = new StringBuilder("SELECT MIN(run_at) FROM jobs WHERE state='pending'");
+                if (!full.isEmpty()) sql.append(" AND queue NOT IN (").append("?,".repeat(full.size() - 1)).append("?)");
+                PreparedStatement ps = pc.prepare(sql.toString());
+                for (int i = 0; i < full.size(); i++) ps.setString(i + 1, full.get(i));
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return null;
+                    long v = rs.getLong(1);
+                    return rs.wasNull() ? null : v;
+                }
+            });
+            return next == null ? null : Instant.ofEpochMilli(next);
+        } catch (SQLException e) {
+            if (isBusy(e)) return Instant.now();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Queues whose processing jobs have reached their max_concurrency. */
+    private static List<String> fullQueues(PooledConnection pc) throws SQLException {
+        if (!hasConcurrencyLimits()) return List.of();
+        List<String> out = new ArrayList<>();
+        processingByQueue(pc).forEach((queue, running) -> {
+            int limit = queuePolicies.getOrDefault(queue, QueueScheduler.Policy.DEFAULT).maxConcurrency;
+            if (limit > 0 && running >= limit) out.add(queue);
+        });
+        return out;
+    }
+
+    private static boolean hasConcurrencyLimits() {
+        for (QueueScheduler.Policy p : queuePolicies.values()) {
+            if (p.maxConcurrency > 0) return true;
+        }
+        return false;
     }
 
     private static boolean isBusy(SQLException e) {
@@ -198,164 +605,530 @@ public class Storage {
         return msg != null && (msg.contains("database is locked") || msg.contains("SQLITE_BUSY"));
     }
 
-    private static void sleepQuiet(long ms) {
-        try { Thread.sleep(ms); } catch (InterruptedException ignored) {}
-    }
-
-    public static void markJobSuccess(String id, int attempts, int exitCode, long durationMs, String outputPath) {
-        init();
-        String now = Models.nowIso();
-        try (Connection c = getConn(); PreparedStatement ps = c.prepareStatement(
-            "UPDATE jobs SET state='completed', attempts=?, last_exit_code=?, last_duration_ms=?, last_output_path=?, " +
-                "run_count=COALESCE(run_count,0)+1, success_count=COALESCE(success_count,0)+1, total_runtime_ms=COALESCE(total_runtime_ms,0)+?, " +
-                "last_finished_at=?, updated_at=? WHERE id=?"
-        )) {
-            ps.setInt(1, attempts);
-            ps.setInt(2, exitCode);
-            ps.setLong(3, durationMs);
-            if (outputPath != null) ps.setString(4, outputPath); else ps.setNull(4, Types.VARCHAR);
-            ps.setLong(5, durationMs);
-            ps.setString(6, now);
-            ps.setString(7, now);
-            ps.setString(8, id);
-            ps.executeUpdate();
+    /**
+     * Records a finished attempt and moves the job on, all in one write transaction: success
+     * completes it, a failure with retries left puts it back to pending at {@code retryAt}, and
+     * the last failure dead-letters it. The next state is decided against the row's own
+     * max_retries, so a crash can no longer leave a job failed with no retry scheduled.
+     * Only a job still processing under the attempt's lease owner is touched: once the lease
+     * reaper has handed the job back to the queue (or to another worker), the late result is
+     * dropped.
+     *
+     * @return the state the job ended up in: completed, pending or dead; null if the job is gone
+     *         or the attempt no longer holds its lease
+     */
+    public static String completeAttempt(Attempt a) {
+        try {
+            return completeAttemptAsync(a).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * {@link #completeAttempt} through the group-commit writer: the transition is committed
+     * together with any others queued in the same batch, and the future completes after that
+     * commit. Workers wake for a retry once it is durable, and, with concurrency limits set, for
+     * any finished attempt, since it may have freed a slot in a queue they were waiting on.
+     */
+    public static CompletableFuture<String> completeAttemptAsync(Attempt a) {
+        return commits().submit(pc -> completeAttempt(pc, a)).thenApply(state -> {
+            if ("pending".equals(state) || (state != null && hasConcurrencyLimits())) Wakeup.signal();
+            return state;
+        });
+    }
+
+    /** Package-private so the benchmarks can run it outside the group-commit writer. */
+    static String completeAttempt(PooledConnection pc, Attempt a) throws SQLException {
+        long now = System.currentTimeMillis();
+        boolean ok = a.exitCode == 0;
+        PreparedStatement ps = pc.prepare(
+            "UPDATE jobs SET state=CASE WHEN ?1 THEN 'completed' WHEN ?2 < max_retries THEN 'pending' ELSE 'dead' END, " +
+                "run_at=CASE WHEN NOT ?1 AND ?2 < max_retries THEN ?3 ELSE run_at END, " +
+                "attempts=?2, last_exit_code=?4, last_duration_ms=?5, last_output_path=?6, " +
+                "run_count=COALESCE(run_count,0)+1, success_count=COALESCE(success_count,0)+?1, failure_count=COALESCE(failure_count,0)+(1-?1), " +
+                "total_runtime_ms=COALESCE(total_runtime_ms,0)+?5, last_finished_at=?7, lease_owner=NULL, lease_expires_at=NULL, updated_at=?7 " +
+                "WHERE id=?8 AND state='processing' AND lease_owner IS ?9 RETURNING state"
+        );
+        ps.setInt(1, ok ? 1 : 0);
+        ps.setInt(2, a.attempt);
+        ps.setLong(3, a.retryAt);
+        ps.setInt(4, a.exitCode);
+        ps.setLong(5, a.durationMs);
+        if (a.outputPath != null) ps.setString(6, a.outputPath); else ps.setNull(6, Types.VARCHAR);
+        ps.setLong(7, now);
+        ps.setString(8, a.id);
+        ps.setString(9, a.leaseOwner);
+        String next;
+        try (ResultSet rs = ps.executeQuery()) {
+            if (!rs.next()) return null;
+            next = rs.getString(1);
+        }
+        if ("dead".equals(next)) moveToDlq(pc, a.id);
+        return next;
+    }
+
+    public static void moveToDlq(String id) {
+        try {
+            pool().writeTx(pc -> {
+                moveToDlq(pc, id);
+                return null;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    public static void markJobFailure(String id, int attempts, int exitCode, long durationMs, String outputPath, boolean willRetry) {
-        init();
-        String now = Models.nowIso();
-        String newState = willRetry ? "failed" : "dead";
-        try (Connection c = getConn(); PreparedStatement ps = c.prepareStatement(
-            "UPDATE jobs SET state=?, attempts=?, last_exit_code=?, last_duration_ms=?, last_output_path=?, " +
-                "run_count=COALESCE(run_count,0)+1, failure_count=COALESCE(failure_count,0)+1, total_runtime_ms=COALESCE(total_runtime_ms,0)+?, " +
-                "last_finished_at=?, updated_at=? WHERE id=?"
-        )) {
-            ps.setString(1, newState);
-            ps.setInt(2, attempts);
-            ps.setInt(3, exitCode);
-            ps.setLong(4, durationMs);
-            if (outputPath != null) ps.setString(5, outputPath); else ps.setNull(5, Types.VARCHAR);
-            ps.setLong(6, durationMs);
-            ps.setString(7, now);
-            ps.setString(8, now);
-            ps.setString(9, id);
-            ps.executeUpdate();
+    /** Copies the job with its metrics and log path into dead_letter_jobs and deletes it; caller owns the transaction. */
+    private static void moveToDlq(PooledConnection pc, String id) throws SQLException {
+        Models.Job job = fetchJobFromTable(pc, "jobs", id);
+        if (job == null) return;
+        job.state = "dead";
+        job.updated_at = System.currentTimeMillis();
+        PreparedStatement ins = pc.prepare(
+            "INSERT INTO dead_letter_jobs (id, command, state, attempts, max_retries, priority, run_at, timeout_seconds, last_exit_code, last_duration_ms, last_output_path, run_count, success_count, failure_count, total_runtime_ms, last_finished_at, created_at, updated_at, queue) " +
+                "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?) " +
+                "ON CONFLICT(id) DO UPDATE SET command=excluded.command, state=excluded.state, attempts=excluded.attempts, max_retries=excluded.max_retries, priority=excluded.priority, run_at=excluded.run_at, timeout_seconds=excluded.timeout_seconds, last_exit_code=excluded.last_exit_code, last_duration_ms=excluded.last_duration_ms, last_output_path=excluded.last_output_path, run_count=excluded.run_count, success_count=excluded.success_count, failure_count=excluded.failure_count, total_runtime_ms=excluded.total_runtime_ms, last_finished_at=excluded.last_finished_at, created_at=excluded.created_at, updated_at=excluded.updated_at, queue=excluded.queue"
+        );
+        bindJobParams(ins, job);
+        ins.executeUpdate();
+        PreparedStatement del = pc.prepare("DELETE FROM jobs WHERE id=?");
+        del.setString(1, id);
+        del.executeUpdate();
+    }
+
+    public static List<Models.Job> listJobs(String state) {
+        String sql = state == null ? "SELECT * FROM jobs ORDER BY priority DESC, run_at ASC, created_at ASC" : "SELECT * FROM jobs WHERE state=? ORDER BY priority DESC, run_at ASC, created_at ASC";
+        try {
+            return pool().read(pc -> {
+                PreparedStatement ps = pc.prepare(sql);
+                if (state != null) ps.setString(1, state);
+                try (ResultSet rs = ps.executeQuery()) {
+                    List<Models.Job> out = new ArrayList<>();
+                    while (rs.next()) out.add(map(rs));
+                    return out;
+                }
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    public static void scheduleRetry(String id, String nextRunAt) {
-        init();
-        String now = Models.nowIso();
-        try (Connection c = getConn(); PreparedStatement ps = c.prepareStatement("UPDATE jobs SET state='pending', run_at=?, updated_at=? WHERE id=?")) {
-            ps.setString(1, nextRunAt);
-            ps.setString(2, now);
-            ps.setString(3, id);
-            ps.executeUpdate();
+    /**
+     * Streams jobs in list order (priority DESC, run_at, created_at, id) straight from the
+     * ResultSet to {@code sink}, one row at a time. Pages are addressed with a keyset cursor
+     * rather than OFFSET, so page N costs the same as page 1. State "dead" reads the DLQ and
+     * "archived" reads archived_jobs.
+     *
+     * @return the cursor for the next page, or null when {@code query.limit} is 0 or no rows remain
+     */
+    public static String streamJobs(JobQuery query, Consumer<Models.Job> sink) {
+        if (fanOut()) return ShardedJobStore.streamJobs(shardCount(), query, sink);
+        String table = switch (query.state == null ? "" : query.state) {
+            case "dead" -> "dead_letter_jobs";
+            case "archived" -> "archived_jobs";
+            default -> "jobs";
+        };
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(table).append(" WHERE 1=1");
+        List<Object> params = new ArrayList<>();
+        if (query.state != null && table.equals("jobs")) {
+            sql.append(" AND state=?");
+            params.add(query.state);
+        }
+        if (query.since != null) {
+            sql.append(" AND updated_at >= ?");
+            params.add(query.since);
+        }
+        if (query.cursor != null) {
+            String[] key = decodeCursor(query.cursor);
+            int priority = Integer.parseInt(key[0]);
+            sql.append(" AND (priority < ? OR (priority = ? AND (run_at, created_at, id) > (?, ?, ?)))");
+            params.add(priority);
+            params.add(priority);
+            params.add(Long.parseLong(key[1]));
+            params.add(Long.parseLong(key[2]));
+            params.add(key[3]);
+        }
+        sql.append(" ORDER BY priority DESC, run_at ASC, created_at ASC, id ASC");
+        if (query.limit > 0) {
+            // One extra row tells us whether another page exists.
+            sql.append(" LIMIT ?");
+            params.add(query.limit + 1);
+        }
+        try {
+            return pool().read(pc -> {
+                PreparedStatement ps = pc.prepare(sql.toString());
+                for (int i = 0; i < params.size(); i++) ps.setObject(i + 1, params.get(i));
+                int emitted = 0;
+                Models.Job last = null;
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        if (query.limit > 0 && emitted == query.limit) return encodeCursor(last);
+                        last = map(rs);
+                        sink.accept(last);
+                        emitted++;
+                    }
+                }
+                return null;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    public static void moveToDlq(String id) {
-        init();
-        try (Connection c = getConn()) {
-            c.setAutoCommit(false);
-            Models.Job job = null;
-            try (PreparedStatement get = c.prepareStatement("SELECT * FROM jobs WHERE id=?")) {
-                get.setString(1, id);
-                try (ResultSet rs = get.executeQuery()) {
-                    if (rs.next()) job = map(rs);
+    static String encodeCursor(Models.Job j) {
+        String raw = j.priority + "\0" + j.run_at + "\0" + j.created_at + "\0" + j.id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Decodes a cursor produced by {@link #streamJobs}; throws IllegalArgumentException when malformed. */
+    static String[] decodeCursor(String cursor) {
+        String[] key;
+        try {
+            key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\0", 4);
+            Integer.parseInt(key[0]);
+            Long.parseLong(key[1]);
+            Long.parseLong(key[2]);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        if (key.length != 4) throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        return key;
+    }
+
+    /** What changed on one database after a job_changes seq, for the dashboard feed. */
+    public static class Changes {
+        /** Current rows of changed jobs, in the order of their latest change. */
+        public final List<Models.Job> jobs = new ArrayList<>();
+        public final List<Models.Job> dlq = new ArrayList<>();
+        /** Ids of changed jobs that are in neither table any more (archived or deleted). */
+        public final List<String> removed = new ArrayList<>();
+        /** Seq to pass to the next call. */
+        public long seq;
+        /** Changes after the requested seq were already pruned; the caller has to resync. */
+        public boolean truncated;
+    }
+
+    /**
+     * Jobs changed after {@code seq} on the bound database, at most {@code limit} log entries'
+     * worth, with their current rows. A job changed several times shows up once. Paging on the
+     * change log's seq, which follows commit order, means no change is skipped however many share
+     * a millisecond or however late a transaction commits.
+     */
+    public static Changes changesSince(long seq, int limit) {
+        try {
+            return pool().read(pc -> {
+                Changes out = new Changes();
+                out.seq = seq;
+                try (ResultSet rs = pc.prepare("SELECT MIN(seq) FROM job_changes").executeQuery()) {
+                    long oldest = rs.next() ? rs.getLong(1) : 0;
+                    out.truncated = oldest > seq + 1;
                 }
-            }
-            if (job != null) {
-                job.state = "dead";
-                job.updated_at = Models.nowIso();
-                try (PreparedStatement ins = c.prepareStatement(
-                    "INSERT INTO dead_letter_jobs (id, command, state, attempts, max_retries, priority, run_at, timeout_seconds, last_exit_code, last_duration_ms, last_output_path, run_count, success_count, failure_count, total_runtime_ms, last_finished_at, created_at, updated_at) " +
-                        "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?) " +
-                        "ON CONFLICT(id) DO UPDATE SET command=excluded.command, state=excluded.state, attempts=excluded.attempts, max_retries=excluded.max_retries, priority=excluded.priority, run_at=excluded.run_at, timeout_seconds=excluded.timeout_seconds, last_exit_code=excluded.last_exit_code, last_duration_ms=excluded.last_duration_ms, last_output_path=excluded.last_output_path, run_count=excluded.run_count, success_count=excluded.success_count, failure_count=excluded.failure_count, total_runtime_ms=excluded.total_runtime_ms, last_finished_at=excluded.last_finished_at, created_at=excluded.created_at, updated_at=excluded.updated_at"
-                )) {
-                    bindJobParams(ins, job);
-                    ins.executeUpdate();
+                PreparedStatement ps = pc.prepare("SELECT seq, id FROM job_changes WHERE seq > ? ORDER BY seq LIMIT ?");
+                ps.setLong(1, seq);
+                ps.setInt(2, limit);
+                Set<String> ids = new LinkedHashSet<>();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        out.seq = rs.getLong(1);
+                        String id = rs.getString(2);
+                        ids.remove(id);
+                        ids.add(id);
+                    }
                 }
-                try (PreparedStatement del = c.prepareStatement("DELETE FROM jobs WHERE id=?")) {
-                    del.setString(1, id);
-                    del.executeUpdate();
+                for (String id : ids) {
+                    Models.Job job = fetchJobFromTable(pc, "jobs", id);
+                    if (job != null) {
+                        out.jobs.add(job);
+                        continue;
+                    }
+                    job = fetchJobFromTable(pc, "dead_letter_jobs", id);
+                    if (job != null) out.dlq.add(job); else out.removed.add(id);
                 }
-            }
-            c.commit();
-            c.setAutoCommit(true);
+                return out;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    public static List<Models.Job> listJobs(String state) {
-        init();
-        String sql = state == null ? "SELECT * FROM jobs ORDER BY priority DESC, run_at ASC, created_at ASC" : "SELECT * FROM jobs WHERE state=? ORDER BY priority DESC, run_at ASC, created_at ASC";
-        try (Connection c = getConn(); PreparedStatement ps = c.prepareStatement(sql)) {
-            if (state != null) ps.setString(1, state);
-            try (ResultSet rs = ps.executeQuery()) {
+    /** Seq of the latest logged change on the bound database; 0 before the first. */
+    public static long lastChange() {
+        try {
+            return pool().read(pc -> {
+                try (ResultSet rs = pc.prepare("SELECT seq FROM sqlite_sequence WHERE name='job_changes'").executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : 0L;
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Trims the change log to its newest {@code keep} entries; returns the number deleted. */
+    public static int pruneChanges(long keep) {
+        try {
+            return pool().write(pc -> {
+                PreparedStatement ps = pc.prepare("DELETE FROM job_changes WHERE seq <= (SELECT MAX(seq) FROM job_changes) - ?");
+                ps.setLong(1, keep);
+                return ps.executeUpdate();
+            });
+        } catch (SQLException e) {
+            if (isBusy(e)) return 0;
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * All jobs, live or dead-lettered, whose id starts with {@code prefix}. Uses a range scan on the
+     * primary key rather than LIKE, so it stays cheap on large tables. Used by {@code queuectl bench}.
+     */
+    public static List<Models.Job> findByIdPrefix(String prefix) {
+        if (fanOut()) return ShardedJobStore.findByIdPrefix(shardCount(), prefix);
+        String upper = prefix.substring(0, prefix.length() - 1) + (char) (prefix.charAt(prefix.length() - 1) + 1);
+        try {
+            return pool().read(pc -> {
                 List<Models.Job> out = new ArrayList<>();
-                while (rs.next()) out.add(map(rs));
+                for (String table : new String[]{"jobs", "dead_letter_jobs"}) {
+                    PreparedStatement ps = pc.prepare("SELECT * FROM " + table + " WHERE id >= ? AND id < ?");
+                    ps.setString(1, prefix);
+                    ps.setString(2, upper);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) out.add(map(rs));
+                    }
+                }
+                return out;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final String ARCHIVE_COLUMNS = "id, command, state, attempts, max_retries, priority, run_at, timeout_seconds, " +
+        "last_exit_code, last_duration_ms, last_output_path, run_count, success_count, failure_count, total_runtime_ms, " +
+        "last_finished_at, created_at, updated_at, queue";
+
+    /**
+     * Moves up to {@code limit} completed jobs last updated before {@code olderThan} (epoch ms)
+     * from jobs to archived_jobs in one transaction, oldest first. The archived copy drops
+     * last_output_path, since the compactor deletes the log files.
+     *
+     * @return ids and log paths of the archived rows, for the caller to delete the logs once the
+     *         move has committed
+     */
+    public static Archived archiveCompleted(long olderThan, int limit) {
+        String batch = "SELECT id FROM jobs WHERE state='completed' AND updated_at < ? ORDER BY updated_at, id LIMIT ?";
+        long now = System.currentTimeMillis();
+        try {
+            return pool().writeTx(pc -> {
+                Archived out = new Archived();
+                PreparedStatement rows = pc.prepare("SELECT id, last_output_path FROM jobs WHERE id IN (" + batch + ")");
+                rows.setLong(1, olderThan);
+                rows.setInt(2, limit);
+                try (ResultSet rs = rows.executeQuery()) {
+                    while (rs.next()) {
+                        out.ids.add(rs.getString(1));
+                        if (rs.getString(2) != null) out.logPaths.add(rs.getString(2));
+                    }
+                }
+                PreparedStatement copy = pc.prepare(
+                    "INSERT OR REPLACE INTO archived_jobs (" + ARCHIVE_COLUMNS + ", archived_at) " +
+                        "SELECT " + ARCHIVE_COLUMNS.replace("last_output_path", "NULL") + ", ? FROM jobs WHERE id IN (" + batch + ")"
+                );
+                copy.setLong(1, now);
+                copy.setLong(2, olderThan);
+                copy.setInt(3, limit);
+                int moved = copy.executeUpdate();
+                PreparedStatement del = pc.prepare("DELETE FROM jobs WHERE id IN (" + batch + ")");
+                del.setLong(1, olderThan);
+                del.setInt(2, limit);
+                if (del.executeUpdate() != moved || moved != out.ids.size()) throw new SQLException("Archive batch changed while moving");
                 return out;
+            });
+        } catch (SQLException e) {
+            if (isBusy(e)) return new Archived();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** True while a job or DLQ row still points into the log segment at {@code segment}. */
+    static boolean logSegmentInUse(String segment) {
+        String prefix = segment + "#";
+        try {
+            return pool().read(pc -> {
+                for (String table : new String[]{"jobs", "dead_letter_jobs"}) {
+                    PreparedStatement ps = pc.prepare("SELECT 1 FROM " + table + " WHERE substr(last_output_path, 1, ?) = ? LIMIT 1");
+                    ps.setInt(1, prefix.length());
+                    ps.setString(2, prefix);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) return true;
+                    }
+                }
+                return false;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * updated_at of the {@code keep}-th newest completed job, or null when there are no more than
+     * {@code keep}; archiving everything older enforces a count-based retention limit.
+     */
+    public static Long completedCutoffForCount(int keep) {
+        try {
+            return pool().read(pc -> {
+                PreparedStatement ps = pc.prepare("SELECT updated_at FROM jobs WHERE state='completed' ORDER BY updated_at DESC, id DESC LIMIT 1 OFFSET ?");
+                ps.setInt(1, Math.max(0, keep - 1));
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : null;
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Truncates the WAL and returns up to {@code maxPages} free pages to the filesystem. The
+     * incremental vacuum only has effect when the database uses {@code auto_vacuum=INCREMENTAL};
+     * files created before that was the default need one {@link #vacuum()} to switch over.
+     */
+    public static Maintenance checkpointAndVacuum(int maxPages) {
+        try {
+            return pool().write(pc -> {
+                Maintenance m = new Maintenance();
+                try (Statement s = pc.connection().createStatement()) {
+                    try (ResultSet rs = s.executeQuery("PRAGMA auto_vacuum")) {
+                        m.auto_vacuum = rs.next() && rs.getInt(1) == 2 ? "incremental" : "none";
+                    }
+                    m.freelist_pages_before = pragmaLong(s, "PRAGMA freelist_count");
+                    if (m.auto_vacuum.equals("incremental")) s.execute("PRAGMA incremental_vacuum(" + Math.max(1, maxPages) + ")");
+                    m.freelist_pages_after = pragmaLong(s, "PRAGMA freelist_count");
+                    try (ResultSet rs = s.executeQuery("PRAGMA wal_checkpoint(TRUNCATE)")) {
+                        if (rs.next()) m.checkpoint_busy = rs.getInt(1) != 0;
+                    }
+                }
+                return m;
+            });
+        } catch (SQLException e) {
+            if (isBusy(e)) return new Maintenance();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Rewrites the whole file with auto_vacuum=INCREMENTAL; takes the write lock for the duration. */
+    public static void vacuum() {
+        if (fanOut()) {
+            for (int shard = 1; shard < shardCount(); shard++) {
+                onShard(shard, () -> {
+                    vacuum();
+                    return null;
+                });
             }
+        }
+        try {
+            pool().write(pc -> {
+                try (Statement s = pc.connection().createStatement()) {
+                    s.execute("PRAGMA auto_vacuum=INCREMENTAL");
+                    s.execute("VACUUM");
+                }
+                return null;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private static long pragmaLong(Statement s, String sql) throws SQLException {
+        try (ResultSet rs = s.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
     public static List<Models.Job> listDlq() {
-        init();
-        try (Connection c = getConn(); PreparedStatement ps = c.prepareStatement("SELECT * FROM dead_letter_jobs ORDER BY created_at ASC"); ResultSet rs = ps.executeQuery()) {
-            List<Models.Job> out = new ArrayList<>();
-            while (rs.next()) out.add(map(rs));
-            return out;
+        try {
+            return pool().read(pc -> {
+                try (ResultSet rs = pc.prepare("SELECT * FROM dead_letter_jobs ORDER BY created_at ASC").executeQuery()) {
+                    List<Models.Job> out = new ArrayList<>();
+                    while (rs.next()) out.add(map(rs));
+                    return out;
+                }
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
     public static boolean retryFromDlq(String id) {
-        init();
-        try (Connection c = getConn()) {
-            c.setAutoCommit(false);
-            Models.Job job = null;
-            try (PreparedStatement get = c.prepareStatement("SELECT * FROM dead_letter_jobs WHERE id=?")) {
-                get.setString(1, id);
-                try (ResultSet rs = get.executeQuery()) {
-                    if (rs.next()) job = map(rs);
-                }
-            }
-            if (job == null) { c.rollback(); return false; }
-            job.state = "pending";
-            job.attempts = 0;
-            job.updated_at = Models.nowIso();
-            job.run_at = Models.nowIso();
-            try (PreparedStatement up = c.prepareStatement(
-                "INSERT INTO jobs (id, command, state, attempts, max_retries, priority, run_at, timeout_seconds, last_exit_code, last_duration_ms, last_output_path, run_count, success_count, failure_count, total_runtime_ms, last_finished_at, created_at, updated_at) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?) " +
-                    "ON CONFLICT(id) DO UPDATE SET command=excluded.command, state=excluded.state, attempts=excluded.attempts, max_retries=excluded.max_retries, priority=excluded.priority, run_at=excluded.run_at, timeout_seconds=excluded.timeout_seconds, created_at=excluded.created_at, updated_at=excluded.updated_at"
-            )) {
+        try {
+            return pool().writeTx(pc -> {
+                Models.Job job = fetchJobFromTable(pc, "dead_letter_jobs", id);
+                if (job == null) return false;
+                job.state = "pending";
+                job.attempts = 0;
+                job.updated_at = System.currentTimeMillis();
+                job.run_at = job.updated_at;
+                PreparedStatement up = pc.prepare(
+                    "INSERT INTO jobs (id, command, state, attempts, max_retries, priority, run_at, timeout_seconds, last_exit_code, last_duration_ms, last_output_path, run_count, success_count, failure_count, total_runtime_ms, last_finished_at, created_at, updated_at, queue) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?) " +
+                        "ON CONFLICT(id) DO UPDATE SET command=excluded.command, state=excluded.state, attempts=excluded.attempts, max_retries=excluded.max_retries, priority=excluded.priority, run_at=excluded.run_at, timeout_seconds=excluded.timeout_seconds, created_at=excluded.created_at, updated_at=excluded.updated_at, queue=excluded.queue"
+                );
                 bindJobParams(up, job);
                 up.executeUpdate();
-            }
-            try (PreparedStatement del = c.prepareStatement("DELETE FROM dead_letter_jobs WHERE id=?")) {
+                PreparedStatement del = pc.prepare("DELETE FROM dead_letter_jobs WHERE id=?");
                 del.setString(1, id);
                 del.executeUpdate();
-            }
-            c.commit();
-            c.setAutoCommit(true);
-            return true;
+                return true;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Moves up to {@code limit} DLQ rows matching {@code filter} back to the queue in one
+     * transaction, oldest first, with set-based {@code INSERT ... SELECT} and {@code DELETE}
+     * rather than a round trip per job. Rows are reset the same way as {@link #retryFromDlq}.
+     *
+     * @return the number of jobs moved; fewer than {@code limit} means nothing else matches
+     */
+    public static int retryDlqBatch(DlqFilter filter, int limit) {
+        StringBuilder where = new StringBuilder("1=1");
+        List<Object> args = new ArrayList<>();
+        if (filter.exitCode != null) { where.append(" AND last_exit_code = ?"); args.add(filter.exitCode); }
+        if (filter.idPrefix != null) { where.append(" AND substr(id, 1, ?) = ?"); args.add(filter.idPrefix.length()); args.add(filter.idPrefix); }
+        if (filter.updatedBefore != null) { where.append(" AND updated_at < ?"); args.add(filter.updatedBefore); }
+        String batch = "SELECT id FROM dead_letter_jobs WHERE " + where + " ORDER BY updated_at, id LIMIT ?";
+        args.add(limit);
+        long now = System.currentTimeMillis();
+        try {
+            return pool().writeTx(pc -> {
+                PreparedStatement copy = pc.prepare(
+                    "INSERT INTO jobs (" + ARCHIVE_COLUMNS + ") " +
+                        "SELECT id, command, 'pending', 0, max_retries, priority, ?, timeout_seconds, last_exit_code, last_duration_ms, last_output_path, " +
+                        "run_count, success_count, failure_count, total_runtime_ms, last_finished_at, created_at, ?, queue " +
+                        "FROM dead_letter_jobs WHERE id IN (" + batch + ") " +
+                        "ON CONFLICT(id) DO UPDATE SET command=excluded.command, state=excluded.state, attempts=excluded.attempts, max_retries=excluded.max_retries, priority=excluded.priority, run_at=excluded.run_at, timeout_seconds=excluded.timeout_seconds, created_at=excluded.created_at, updated_at=excluded.updated_at, queue=excluded.queue, lease_owner=NULL, lease_expires_at=NULL"
+                );
+                copy.setLong(1, now);
+                copy.setLong(2, now);
+                bind(copy, 3, args);
+                int moved = copy.executeUpdate();
+                PreparedStatement del = pc.prepare("DELETE FROM dead_letter_jobs WHERE id IN (" + batch + ")");
+                bind(del, 1, args);
+                if (del.executeUpdate() != moved) throw new SQLException("DLQ batch changed while moving");
+                return moved;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private static void bind(PreparedStatement ps, int first, List<Object> args) throws SQLException {
+        for (int i = 0; i < args.size(); i++) ps.setObject(first + i, args.get(i));
+    }
+
     private static void bindJobParams(PreparedStatement ps, Models.Job job) throws SQLException {
         ps.setString(1, job.id);
         ps.setString(2, job.command);
@@ -363,7 +1136,7 @@ public class Storage {
         ps.setInt(4, job.attempts);
         ps.setInt(5, job.max_retries);
         ps.setInt(6, job.priority);
-        ps.setString(7, job.run_at);
+        ps.setLong(7, job.run_at);
         ps.setInt(8, job.timeout_seconds);
         if (job.last_exit_code != null) ps.setInt(9, job.last_exit_code); else ps.setNull(9, Types.INTEGER);
         if (job.last_duration_ms != null) ps.setLong(10, job.last_duration_ms); else ps.setNull(10, Types.BIGINT);
@@ -372,51 +1145,131 @@ public class Storage {
         ps.setInt(13, job.success_count != null ? job.success_count : 0);
         ps.setInt(14, job.failure_count != null ? job.failure_count : 0);
         ps.setLong(15, job.total_runtime_ms != null ? job.total_runtime_ms : 0L);
-        if (job.last_finished_at != null) ps.setString(16, job.last_finished_at); else ps.setNull(16, Types.VARCHAR);
-        ps.setString(17, job.created_at);
-        ps.setString(18, job.updated_at != null ? job.updated_at : Models.nowIso());
+        if (job.last_finished_at != null) ps.setLong(16, job.last_finished_at); else ps.setNull(16, Types.BIGINT);
+        ps.setLong(17, job.created_at);
+        ps.setLong(18, job.updated_at);
+        ps.setString(19, job.queue != null ? job.queue : Models.DEFAULT_QUEUE);
     }
 
+    /**
+     * Reads the trigger-maintained queue_stats rows; cost does not depend on table size.
+     * {@link #checkStats(boolean)} compares them with a full recount.
+     */
     public static Counts counts() {
-        init();
-        Counts cts = new Counts();
-        String[] states = new String[]{"pending","processing","completed","failed","dead"};
-        for (String s : states) cts.set(s, 0);
-        try (Connection c = getConn()) {
-            try (PreparedStatement ps = c.prepareStatement("SELECT state, COUNT(1) as c FROM jobs GROUP BY state"); ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    cts.set(rs.getString(1), rs.getInt(2));
+        try {
+            return pool().read(Storage::readStats);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Counts readStats(PooledConnection pc) throws SQLException {
+        Counts cts = emptyCounts();
+        try (ResultSet rs = pc.prepare("SELECT name, value FROM queue_stats").executeQuery()) {
+            while (rs.next()) {
+                String name = rs.getString(1);
+                if (name.startsWith("jobs:")) {
+                    String state = name.substring("jobs:".length());
+                    cts.set(state, cts.get(state) + rs.getInt(2));
+                    continue;
                 }
-            }
-            try (PreparedStatement dlqCount = c.prepareStatement("SELECT COUNT(1) FROM dead_letter_jobs"); ResultSet rs = dlqCount.executeQuery()) {
-                if (rs.next()) {
-                    cts.dead += rs.getInt(1);
+                switch (name) {
+                    case "dlq" -> cts.dead += rs.getInt(2);
+                    case "archived" -> cts.archived = rs.getInt(2);
+                    case "run_count" -> cts.run_count = safeLong(rs, 2);
+                    case "success_count" -> cts.success_count = safeLong(rs, 2);
+                    case "failure_count" -> cts.failure_count = safeLong(rs, 2);
+                    case "total_runtime_ms" -> cts.total_runtime_ms = safeLong(rs, 2);
+                    case "last_finished_at" -> {
+                        long v = rs.getLong(2);
+                        cts.last_finished_at = rs.wasNull() ? null : v;
+                    }
+                    default -> { }
                 }
             }
-            accumulateMetrics(cts, c, "jobs");
-            accumulateMetrics(cts, c, "dead_letter_jobs");
+        }
+        return finishCounts(cts);
+    }
+
+    /**
+     * Compares queue_stats with a fresh recount taken under the write lock, so no writer can
+     * slip in between the two reads. With {@code repair}, drift is fixed by rebuilding the table.
+     */
+    public static StatsCheck checkStats(boolean repair) {
+        if (fanOut()) return ShardedJobStore.checkStats(shardCount(), repair);
+        try {
+            return pool().writeTx(pc -> {
+                StatsCheck check = new StatsCheck();
+                check.recomputed = recount(pc);
+                check.stored = readStats(pc);
+                check.consistent = sameCounts(check.stored, check.recomputed);
+                if (!check.consistent && repair) {
+                    Migrations.rebuildStats(pc.connection());
+                    check.repaired = true;
+                }
+                return check;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
+    }
+
+    private static Counts recount(PooledConnection pc) throws SQLException {
+        Counts cts = emptyCounts();
+        try (ResultSet rs = pc.prepare("SELECT state, COUNT(1) as c FROM jobs GROUP BY state").executeQuery()) {
+            while (rs.next()) {
+                cts.set(rs.getString(1), rs.getInt(2));
+            }
+        }
+        try (ResultSet rs = pc.prepare("SELECT COUNT(1) FROM dead_letter_jobs").executeQuery()) {
+            if (rs.next()) {
+                cts.dead += rs.getInt(1);
+            }
+        }
+        try (ResultSet rs = pc.prepare("SELECT COUNT(1) FROM archived_jobs").executeQuery()) {
+            if (rs.next()) {
+                cts.archived = rs.getInt(1);
+            }
+        }
+        accumulateMetrics(cts, pc, "jobs");
+        accumulateMetrics(cts, pc, "dead_letter_jobs");
+        accumulateMetrics(cts, pc, "archived_jobs");
+        return finishCounts(cts);
+    }
+
+    private static Counts emptyCounts() {
+        Counts cts = new Counts();
+        String[] states = new String[]{"pending","processing","completed","failed","dead"};
+        for (String s : states) cts.set(s, 0);
+        return cts;
+    }
+
+    static Counts finishCounts(Counts cts) {
         if (cts.success_count > 0) {
             cts.average_duration_ms = (double) cts.total_runtime_ms / (double) cts.success_count;
         }
         return cts;
     }
 
-    private static void accumulateMetrics(Counts counts, Connection c, String table) throws SQLException {
+    private static boolean sameCounts(Counts a, Counts b) {
+        return a.pending == b.pending && a.processing == b.processing && a.completed == b.completed
+            && a.failed == b.failed && a.dead == b.dead && a.archived == b.archived
+            && a.run_count == b.run_count && a.success_count == b.success_count
+            && a.failure_count == b.failure_count && a.total_runtime_ms == b.total_runtime_ms
+            && Objects.equals(a.last_finished_at, b.last_finished_at);
+    }
+
+    private static void accumulateMetrics(Counts counts, PooledConnection pc, String table) throws SQLException {
         String sql = "SELECT SUM(run_count), SUM(success_count), SUM(failure_count), SUM(total_runtime_ms), MAX(last_finished_at) FROM " + table;
-        try (PreparedStatement ps = c.prepareStatement(sql); ResultSet rs = ps.executeQuery()) {
+        try (ResultSet rs = pc.prepare(sql).executeQuery()) {
             if (rs.next()) {
                 counts.run_count += safeLong(rs, 1);
                 counts.success_count += safeLong(rs, 2);
                 counts.failure_count += safeLong(rs, 3);
                 counts.total_runtime_ms += safeLong(rs, 4);
-                String last = rs.getString(5);
-                if (last != null) {
-                    if (counts.last_finished_at == null || last.compareTo(counts.last_finished_at) > 0) {
-                        counts.last_finished_at = last;
-                    }
+                long last = rs.getLong(5);
+                if (!rs.wasNull() && (counts.last_finished_at == null || last > counts.last_finished_at)) {
+                    counts.last_finished_at = last;
                 }
             }
         }
@@ -427,67 +1280,66 @@ public class Storage {
         return rs.wasNull() ? 0L : value;
     }
 
-    public static String loadJobLog(String jobId) {
-        init();
-        try (Connection c = getConn()) {
-            String path = findOutputPath(c, "jobs", jobId);
-            if (path == null) {
-                path = findOutputPath(c, "dead_letter_jobs", jobId);
-            }
-            if (path == null || path.isBlank()) return null;
-            Path p = Paths.get(path);
-            if (!p.isAbsolute()) {
-                p = new File(path).getAbsoluteFile().toPath();
-            }
-            if (!Files.exists(p)) return "Log file missing at: " + p;
-            return Files.readString(p);
-        } catch (Exception e) {
+    /** Stored reference to the job's latest log, for {@link JobLogs}; null when there is none. */
+    public static String jobLogPath(String jobId) {
+        if (fanOut()) return ShardedJobStore.jobLogPath(shardCount(), jobId);
+        try {
+            String path = pool().read(pc -> {
+                String found = findOutputPath(pc, "jobs", jobId);
+                return found != null ? found : findOutputPath(pc, "dead_letter_jobs", jobId);
+            });
+            return path == null || path.isBlank() ? null : path;
+        } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private static String findOutputPath(Connection c, String table, String jobId) throws SQLException {
+    private static String findOutputPath(PooledConnection pc, String table, String jobId) throws SQLException {
         String sql = "SELECT last_output_path FROM " + table + " WHERE id=?";
-        try (PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setString(1, jobId);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) return rs.getString(1);
-            }
+        PreparedStatement ps = pc.prepare(sql);
+        ps.setString(1, jobId);
+        try (ResultSet rs = ps.executeQuery()) {
+            if (rs.next()) return rs.getString(1);
         }
         return null;
     }
 
     public static Models.Job getJob(String jobId) {
-        init();
-        try (Connection c = getConn()) {
-            Models.Job job = fetchJobFromTable(c, "jobs", jobId);
-            if (job != null) return job;
-            return fetchJobFromTable(c, "dead_letter_jobs", jobId);
+        try {
+            return pool().read(pc -> {
+                Models.Job job = fetchJobFromTable(pc, "jobs", jobId);
+                if (job == null) job = fetchJobFromTable(pc, "dead_letter_jobs", jobId);
+                if (job == null) job = fetchJobFromTable(pc, "archived_jobs", jobId);
+                return job;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private static Models.Job fetchJobFromTable(Connection c, String table, String jobId) throws SQLException {
+    private static Models.Job fetchJobFromTable(PooledConnection pc, String table, String jobId) throws SQLException {
         String sql = "SELECT * FROM " + table + " WHERE id=?";
-        try (PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setString(1, jobId);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) return map(rs);
-            }
+        PreparedStatement ps = pc.prepare(sql);
+        ps.setString(1, jobId);
+        try (ResultSet rs = ps.executeQuery()) {
+            if (rs.next()) return map(rs);
         }
         return null;
     }
 
-    private static Models.Job map(ResultSet r) throws SQLException {
+    /** Decodes the current row; package-private so the JMH benchmarks can time it in isolation. */
+    static Models.Job map(ResultSet r) throws SQLException {
         Models.Job j = new Models.Job();
         j.id = r.getString("id");
         j.command = r.getString("command");
+        String queue = r.getString("queue");
+        if (queue != null) j.queue = queue;
         j.state = r.getString("state");
         j.attempts = r.getInt("attempts");
         j.max_retries = r.getInt("max_retries");
         j.priority = r.getInt("priority");
-        j.run_at = r.getString("run_at") != null ? r.getString("run_at") : j.run_at;
+        long runAt = r.getLong("run_at");
+        if (!r.wasNull()) j.run_at = runAt;
         j.timeout_seconds = r.getInt("timeout_seconds");
         if (r.wasNull()) j.timeout_seconds = 0;
         Object exit = r.getObject("last_exit_code");
@@ -504,18 +1356,33 @@ public class Storage {
         if (r.wasNull()) j.failure_count = 0;
         long totalRuntime = r.getLong("total_runtime_ms");
         if (!r.wasNull()) j.total_runtime_ms = totalRuntime;
-        String lastFinished = r.getString("last_finished_at");
-        if (lastFinished != null) j.last_finished_at = lastFinished;
-        j.created_at = r.getString("created_at");
-        j.updated_at = r.getString("updated_at");
+        long lastFinished = r.getLong("last_finished_at");
+        if (!r.wasNull()) j.last_finished_at = lastFinished;
+        j.created_at = r.getLong("created_at");
+        j.updated_at = r.getLong("updated_at");
+        j.lease_owner = r.getString("lease_owner");
+        long leaseExpires = r.getLong("lease_expires_at");
+        if (!r.wasNull()) j.lease_expires_at = leaseExpires;
         return j;
     }
 
     public static class Counts {
-        public int pending; public int processing; public int completed; public int failed; public int dead; public int active_workers;
+        public int pending; public int processing; public int completed; public int failed; public int dead; public int archived; public int active_workers;
         public long run_count; public long success_count; public long failure_count; public long total_runtime_ms;
         public Double average_duration_ms;
-        public String last_finished_at;
+        @JsonSerialize(using = Models.IsoMillisSerializer.class)
+        public Long last_finished_at;
+
+        public int get(String state) {
+            return switch (state) {
+                case "pending" -> pending;
+                case "processing" -> processing;
+                case "completed" -> completed;
+                case "failed" -> failed;
+                case "dead" -> dead;
+                default -> 0;
+            };
+        }
 
         public void set(String state, int v) {
             switch (state) {
@@ -527,6 +1394,63 @@ public class Storage {
             }
         }
     }
+
+    /** Filters for {@link #streamJobs}; unset fields do not restrict the listing. */
+    public static class JobQuery {
+        public String state;
+        public Long since; // epoch milliseconds
+        public int limit;
+        public String cursor;
+    }
+
+    /** Result of one execution, for {@link #completeAttempt}. */
+    public static class Attempt {
+        public final String id;
+        public final int attempt;
+        public final int exitCode;
+        public final long durationMs;
+        public final String outputPath;
+        /** When to run again if this failure leaves retries (epoch milliseconds). */
+        public final long retryAt;
+        /** Lease owner the job was claimed by; the attempt only counts while it still holds the lease. */
+        public final String leaseOwner;
+
+        public Attempt(String id, String leaseOwner, int attempt, int exitCode, long durationMs, String outputPath, long retryAt) {
+            this.id = id;
+            this.leaseOwner = leaseOwner;
+            this.attempt = attempt;
+            this.exitCode = exitCode;
+            this.durationMs = durationMs;
+            this.outputPath = outputPath;
+            this.retryAt = retryAt;
+        }
+    }
+
+    /** Selects DLQ rows for {@link #retryDlqBatch}; unset fields match every row. */
+    public static class DlqFilter {
+        public Integer exitCode;
+        public String idPrefix;
+        public Long updatedBefore; // epoch milliseconds
+    }
+
+    public static class Archived {
+        public final List<String> ids = new ArrayList<>();
+        public final List<String> logPaths = new ArrayList<>();
+    }
+
+    public static class Maintenance {
+        public String auto_vacuum;
+        public long freelist_pages_before;
+        public long freelist_pages_after;
+        public boolean checkpoint_busy;
+    }
+
+    public static class StatsCheck {
+        public boolean consistent;
+        public boolean repaired;
+        public Counts stored;
+        public Counts recomputed;
+    }
 }
 
 
@@ -0,0 +1,225 @@
+package com.queuectl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process counters and latency histograms. Hot paths record into {@link LongAdder}s and
+ * atomic bucket arrays, never taking a lock. Workers and the dashboard are separate processes,
+ * so each worker publishes a snapshot to {@code queuectl_runtime/metrics-<pid>.json} and the
+ * dashboard's {@code /metrics} renders the snapshots of live workers in the Prometheus text
+ * format, labelled by worker pid.
+ */
+public final class Telemetry {
+    public static final LongAdder CLAIMED = new LongAdder();
+    public static final LongAdder SUCCEEDED = new LongAdder();
+    public static final LongAdder FAILED = new LongAdder();
+    public static final LongAdder DEAD_LETTERED = new LongAdder();
+    /** run_at (or enqueue time) to the start of an attempt. */
+    public static final Histogram QUEUE_WAIT = new Histogram();
+    public static final Histogram EXECUTION = new Histogram();
+    /** One claim query, including any wait for the write lock. */
+    public static final Histogram CLAIM_LATENCY = new Histogram();
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final String FILE_PREFIX = "metrics-";
+
+    private Telemetry() {}
+
+    /**
+     * Log-linear histogram over microseconds: two buckets per power of two from 1 us to
+     * 2^38 us (about three days), so a bucket's bounds are at most a factor of 1.5 apart.
+     * Larger values only count towards {@code +Inf}.
+     */
+    public static final class Histogram {
+        static final int OCTAVES = 38;
+        /** [0, 2) as one bucket, then two per octave from 2 up to 2^OCTAVES microseconds. */
+        static final int BUCKETS = OCTAVES * 2 - 1;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumMicros = new LongAdder();
+
+        public void recordMillis(long millis) {
+            recordMicros(millis * 1000L);
+        }
+
+        public void recordNanos(long nanos) {
+            recordMicros(nanos / 1000L);
+        }
+
+        public void recordMicros(long micros) {
+            long v = Math.max(0, micros);
+            int idx = index(v);
+            if (idx < BUCKETS) buckets.incrementAndGet(idx);
+            count.increment();
+            sumMicros.add(v);
+        }
+
+        /**
+         * Bucket for {@code v}: 0 holds 0 and 1; above that the octave is its highest bit and the
+         * half-octave the bit below, so bucket 1 is [2, 3), 2 is [3, 4), 3 is [4, 6), ...
+         */
+        static int index(long v) {
+            if (v <= 1) return 0;
+            int octave = 63 - Long.numberOfLeadingZeros(v);
+            return octave * 2 - 1 + (int) ((v >>> (octave - 1)) & 1);
+        }
+
+        /** Exclusive upper bound, in microseconds, of bucket {@code idx}; strictly increasing. */
+        static long upperBound(int idx) {
+            if (idx == 0) return 2;
+            int octave = (idx + 1) / 2;
+            return (1L << octave) + (((idx + 1) % 2) + 1) * (1L << (octave - 1));
+        }
+
+        HistogramSnapshot snapshot() {
+            HistogramSnapshot s = new HistogramSnapshot();
+            s.buckets = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) s.buckets[i] = buckets.get(i);
+            s.count = count.sum();
+            s.sum_micros = sumMicros.sum();
+            return s;
+        }
+    }
+
+    public static class HistogramSnapshot {
+        public long[] buckets;
+        public long count;
+        public long sum_micros;
+    }
+
+    public static class Snapshot {
+        public long pid;
+        public long written_at;
+        public long claimed;
+        public long succeeded;
+        public long failed;
+        public long dead_lettered;
+        public Map<String, HistogramSnapshot> histograms = new LinkedHashMap<>();
+    }
+
+    public static Snapshot snapshot() {
+        Snapshot s = new Snapshot();
+        s.pid = ProcessHandle.current().pid();
+        s.written_at = System.currentTimeMillis();
+        s.claimed = CLAIMED.sum();
+        s.succeeded = SUCCEEDED.sum();
+        s.failed = FAILED.sum();
+        s.dead_lettered = DEAD_LETTERED.sum();
+        s.histograms.put("queue_wait", QUEUE_WAIT.snapshot());
+        s.histograms.put("execution", EXECUTION.snapshot());
+        s.histograms.put("claim_latency", CLAIM_LATENCY.snapshot());
+        return s;
+    }
+
+    /** Writes this process's snapshot for the dashboard, replacing the previous one atomically. */
+    public static void publish() {
+        File dir = Worker.RUNTIME_DIR;
+        File tmp = new File(dir, FILE_PREFIX + ProcessHandle.current().pid() + ".json.tmp");
+        try {
+            if (!dir.exists()) dir.mkdirs();
+            JSON.writeValue(tmp, snapshot());
+            Files.move(tmp.toPath(), publishedFile().toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to publish metrics: " + e.getMessage());
+        }
+    }
+
+    public static File publishedFile() {
+        return new File(Worker.RUNTIME_DIR, FILE_PREFIX + ProcessHandle.current().pid() + ".json");
+    }
+
+    /** Snapshots published by live workers; files left by dead ones are removed. */
+    public static List<Snapshot> collect() {
+        List<Snapshot> out = new ArrayList<>();
+        File[] files = Worker.RUNTIME_DIR.listFiles((d, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(".json"));
+        if (files == null) return out;
+        for (File f : files) {
+            try {
+                long pid = Long.parseLong(f.getName().substring(FILE_PREFIX.length(), f.getName().length() - ".json".length()));
+                if (ProcessHandle.of(pid).filter(ProcessHandle::isAlive).isEmpty()) {
+                    f.delete();
+                    continue;
+                }
+                out.add(JSON.readValue(f, Snapshot.class));
+            } catch (NumberFormatException | IOException ignored) {
+                // Not ours, or replaced mid-read; the next scrape picks it up.
+            }
+        }
+        return out;
+    }
+
+    /** Renders queue gauges from {@code counts} plus the worker snapshots as Prometheus text. */
+    public static String render(Storage.Counts counts, int activeWorkers, List<Snapshot> workers) {
+        StringBuilder sb = new StringBuilder();
+        header(sb, "queuectl_jobs", "gauge", "Jobs by state, from queue_stats.");
+        sample(sb, "queuectl_jobs{state=\"pending\"}", counts.pending);
+        sample(sb, "queuectl_jobs{state=\"processing\"}", counts.processing);
+        sample(sb, "queuectl_jobs{state=\"completed\"}", counts.completed);
+        sample(sb, "queuectl_jobs{state=\"failed\"}", counts.failed);
+        sample(sb, "queuectl_jobs{state=\"dead\"}", counts.dead);
+        sample(sb, "queuectl_jobs{state=\"archived\"}", counts.archived);
+        header(sb, "queuectl_active_workers", "gauge", "Worker processes with a live pid file.");
+        sample(sb, "queuectl_active_workers", activeWorkers);
+        header(sb, "queuectl_runs_total", "counter", "Attempts finished, by outcome, across all workers ever.");
+        sample(sb, "queuectl_runs_total{outcome=\"success\"}", counts.success_count);
+        sample(sb, "queuectl_runs_total{outcome=\"failure\"}", counts.failure_count);
+        header(sb, "queuectl_runtime_seconds_total", "counter", "Total execution time of finished attempts.");
+        sb.append("queuectl_runtime_seconds_total ").append(seconds(counts.total_runtime_ms * 1000L)).append('\n');
+
+        header(sb, "queuectl_worker_jobs_claimed_total", "counter", "Jobs claimed by this worker process.");
+        for (Snapshot w : workers) sample(sb, "queuectl_worker_jobs_claimed_total{worker=\"" + w.pid + "\"}", w.claimed);
+        header(sb, "queuectl_worker_jobs_completed_total", "counter", "Attempts finished by this worker process, by outcome.");
+        for (Snapshot w : workers) {
+            sample(sb, "queuectl_worker_jobs_completed_total{worker=\"" + w.pid + "\",outcome=\"success\"}", w.succeeded);
+            sample(sb, "queuectl_worker_jobs_completed_total{worker=\"" + w.pid + "\",outcome=\"failure\"}", w.failed);
+            sample(sb, "queuectl_worker_jobs_completed_total{worker=\"" + w.pid + "\",outcome=\"dead\"}", w.dead_lettered);
+        }
+        histogram(sb, workers, "queue_wait", "queuectl_queue_wait_seconds", "From run_at to the start of an attempt.");
+        histogram(sb, workers, "execution", "queuectl_execution_seconds", "Attempt execution time.");
+        histogram(sb, workers, "claim_latency", "queuectl_claim_latency_seconds", "Duration of one claim query, lock wait included.");
+        return sb.toString();
+    }
+
+    private static void histogram(StringBuilder sb, List<Snapshot> workers, String key, String name, String help) {
+        header(sb, name, "histogram", help);
+        for (Snapshot w : workers) {
+            HistogramSnapshot h = w.histograms.get(key);
+            if (h == null) continue;
+            String worker = "worker=\"" + w.pid + "\"";
+            long cumulative = 0;
+            for (int i = 0; i < h.buckets.length; i++) {
+                cumulative += h.buckets[i];
+                sb.append(name).append("_bucket{").append(worker).append(",le=\"").append(seconds(Histogram.upperBound(i))).append("\"} ").append(cumulative).append('\n');
+            }
+            sb.append(name).append("_bucket{").append(worker).append(",le=\"+Inf\"} ").append(h.count).append('\n');
+            sb.append(name).append("_sum{").append(worker).append("} ").append(seconds(h.sum_micros)).append('\n');
+            sb.append(name).append("_count{").append(worker).append("} ").append(h.count).append('\n');
+        }
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String series, long value) {
+        sb.append(series).append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long micros) {
+        return String.format(Locale.ROOT, "%.6f", micros / 1e6);
+    }
+}
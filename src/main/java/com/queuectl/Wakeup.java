@@ -0,0 +1,88 @@
+package com.queuectl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local notification channel between producers and idle workers. Producers touch
+ * {@code queuectl_runtime/signals/WAKE}; workers block on a {@link WatchService} over that
+ * directory and return as soon as WAKE or STOP changes, instead of polling the database. Pid
+ * and metrics files stay one level up, where their writes do not wake anyone.
+ */
+public final class Wakeup implements AutoCloseable {
+    public static final File SIGNAL_FILE = new File(Worker.SIGNAL_DIR, "WAKE");
+
+    private final WatchService watcher;
+
+    public Wakeup() {
+        if (!Worker.SIGNAL_DIR.exists()) Worker.SIGNAL_DIR.mkdirs();
+        WatchService ws = null;
+        try {
+            ws = FileSystems.getDefault().newWatchService();
+            Worker.SIGNAL_DIR.toPath().register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            // Fall back to timed sleeps; await() still honours its timeout.
+            ws = null;
+        }
+        this.watcher = ws;
+    }
+
+    /** Wakes idle workers; cheap enough to call on every enqueue. */
+    public static void signal() {
+        try {
+            if (!Worker.SIGNAL_DIR.exists()) Worker.SIGNAL_DIR.mkdirs();
+            Files.write(SIGNAL_FILE.toPath(), Long.toString(System.nanoTime()).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Blocks until a WAKE/STOP notification arrives or {@code maxMillis} elapses.
+     *
+     * @return true when woken by a notification, false on timeout
+     */
+    public boolean await(long maxMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + Math.max(0L, maxMillis);
+        if (watcher == null) {
+            Thread.sleep(Math.max(0L, maxMillis));
+            return false;
+        }
+        while (true) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return false;
+            WatchKey key;
+            try {
+                key = watcher.poll(remaining, TimeUnit.MILLISECONDS);
+            } catch (ClosedWatchServiceException e) {
+                return false;
+            }
+            if (key == null) return false;
+            boolean relevant = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    relevant = true;
+                    continue;
+                }
+                String name = ((Path) event.context()).getFileName().toString();
+                if (name.equals(SIGNAL_FILE.getName()) || name.startsWith(Worker.STOP_FILE.getName())) relevant = true;
+            }
+            key.reset();
+            if (relevant) return true;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (watcher == null) return;
+        try { watcher.close(); } catch (IOException ignored) {}
+    }
+}
@@ -7,82 +7,255 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Worker {
     public static final File RUNTIME_DIR = new File("queuectl_runtime");
-    public static final File STOP_FILE = new File(RUNTIME_DIR, "STOP");
+    /** Holds only WAKE and STOP, so idle workers watching it are not woken by pid or metrics writes. */
+    public static final File SIGNAL_DIR = new File(RUNTIME_DIR, "signals");
+    public static final File STOP_FILE = new File(SIGNAL_DIR, "STOP");
+    // Upper bound on an idle wait, so a missed notification only delays pickup, never loses it.
+    static final long IDLE_MAX_WAIT_MS = 10_000L;
+    private static final long LOG_DRAIN_MS = 2_000L;
+    private static final long METRICS_PUBLISH_SECONDS = 5;
 
     private final AtomicBoolean shouldStop = new AtomicBoolean(false);
+    private final int threads;
+    /** Stops this worker alone, next to the host-wide {@link #STOP_FILE}; null when there is none. */
+    private final File stopToken;
     private File pidFile;
+    private int backoffBase;
+    private int defaultTimeout;
+    private JobLogs logs;
+    private final JobStore store = Storage.store();
+    private final String leaseOwner = Storage.defaultLeaseOwner();
+    private int leaseSeconds;
+    private long lastLeaseRenewal;
+
+    public Worker() {
+        this(1);
+    }
+
+    /**
+     * @param threads number of jobs this worker process executes concurrently. All of them
+     *                share one claim loop, one config snapshot and one database connection.
+     */
+    public Worker(int threads) {
+        this(threads, null);
+    }
+
+    /** @param stopToken file whose creation stops this worker, as {@link #stopToken(String)} names it */
+    public Worker(int threads, File stopToken) {
+        this.threads = Math.max(1, threads);
+        this.stopToken = stopToken;
+    }
+
+    /** A stop file only the workers started with {@code token} obey, e.g. the ones one bench run started. */
+    static File stopToken(String token) {
+        return new File(SIGNAL_DIR, STOP_FILE.getName() + "-" + token);
+    }
 
     public void run() {
         if (!RUNTIME_DIR.exists()) RUNTIME_DIR.mkdirs();
         Runtime.getRuntime().addShutdownHook(new Thread(() -> shouldStop.set(true)));
-        pidFile = new File(RUNTIME_DIR, "worker-" + ProcessHandle.current().pid() + ".pid");
-        try (FileWriter fw = new FileWriter(pidFile)) { fw.write(Long.toString(System.currentTimeMillis())); } catch (IOException ignored) {}
+        // A worker on the memory engine serves only its own process, so other commands must not count it.
+        if (!(store instanceof MemoryJobStore)) {
+            pidFile = new File(RUNTIME_DIR, "worker-" + ProcessHandle.current().pid() + ".pid");
+            try (FileWriter fw = new FileWriter(pidFile)) { fw.write(Long.toString(System.currentTimeMillis())); } catch (IOException ignored) {}
+        }
 
         ObjectNode cfg = Config.load();
-        int backoffBase = cfg.get("backoff_base").asInt(2);
-        int defaultTimeout = cfg.get("default_timeout_seconds").asInt(0);
+        backoffBase = cfg.get("backoff_base").asInt(2);
+        defaultTimeout = cfg.get("default_timeout_seconds").asInt(0);
+        int batchSize = Math.max(1, cfg.get("claim_batch_size").asInt(1));
+        leaseSeconds = Math.max(3, cfg.get("lease_seconds").asInt(Storage.DEFAULT_LEASE_SECONDS));
+        // Executor threads finishing together share one commit through the group-commit writer.
+        if (!(store instanceof MemoryJobStore)) {
+            Storage.configureCommits(cfg.get("commit_max_delay_ms").asLong(Storage.DEFAULT_COMMIT_MAX_DELAY_MS), cfg.get("synchronous").asText("FULL"));
+            Storage.configureQueues(Config.queuePolicies(cfg));
+        }
         String logDirName = cfg.get("log_directory").asText("job_logs");
         File logDir = new File(logDirName);
         if (!logDir.exists()) logDir.mkdirs();
+        logs = new JobLogs(logDir, cfg.get("log_max_bytes").asLong(JobLogs.DEFAULT_MAX_BYTES));
 
+        // Executors mostly block in Process.waitFor, so a plain fixed pool is enough here.
+        AtomicInteger threadSeq = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "queuectl-exec-" + threadSeq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        Semaphore slots = new Semaphore(threads);
+        // Jobs claimed in one batch but not yet started; handed back on shutdown.
+        Deque<Job> buffer = new ArrayDeque<>();
+        Wakeup wakeup = new Wakeup();
+        // Keeps our leases alive while every slot is busy with long jobs, and reclaims the
+        // leases of workers that died without releasing them.
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "queuectl-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        long beatSeconds = Math.max(1, leaseSeconds / 3);
+        heartbeat.scheduleAtFixedRate(this::heartbeat, 0, beatSeconds, TimeUnit.SECONDS);
+        // Compaction and telemetry run on their own thread: a gc pass over a large database can
+        // take longer than a lease, and must not hold up the renewals that keep our claims alive.
+        ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "queuectl-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        // The compactor works on the SQLite files; the memory engine has nothing for it to do.
+        long gcSeconds = store instanceof MemoryJobStore ? 0 : cfg.get("gc_interval_seconds").asLong(0);
+        if (gcSeconds > 0) maintenance.scheduleWithFixedDelay(() -> compact(cfg), gcSeconds, gcSeconds, TimeUnit.SECONDS);
+        maintenance.scheduleAtFixedRate(Telemetry::publish, METRICS_PUBLISH_SECONDS, METRICS_PUBLISH_SECONDS, TimeUnit.SECONDS);
         try {
             while (!shouldStop.get()) {
-                if (STOP_FILE.exists()) shouldStop.set(true);
-                Job job = Storage.fetchAndLockNextPending();
+                if (STOP_FILE.exists() || (stopToken != null && stopToken.exists())) {
+                    shouldStop.set(true);
+                    break;
+                }
+                if (!slots.tryAcquire(500, TimeUnit.MILLISECONDS)) continue;
+                if (buffer.isEmpty()) buffer.addAll(store.fetchAndLockBatch(Math.max(batchSize, slots.availablePermits() + 1), leaseOwner, leaseSeconds, logs.livePrefix()));
+                Job job = buffer.pollFirst();
                 if (job == null) {
+                    slots.release();
                     touchPid();
-                    try { Thread.sleep(500); } catch (InterruptedException ignored) {}
+                    wakeup.await(idleWaitMillis(store));
                     continue;
                 }
-                int attemptNumber = job.attempts + 1;
-                int timeoutSeconds = job.timeout_seconds > 0 ? job.timeout_seconds : defaultTimeout;
-                ExecutionResult result = execute(job, attemptNumber, timeoutSeconds, logDir);
-                if (result.exitCode == 0) {
-                    Storage.markJobSuccess(job.id, attemptNumber, result.exitCode, result.durationMs, result.logPath);
-                } else {
-                    boolean willRetry = attemptNumber < job.max_retries;
-                    Storage.markJobFailure(job.id, attemptNumber, result.exitCode, result.durationMs, result.logPath, willRetry);
-                    if (willRetry) {
-                        long delaySeconds = Math.max(1L, Math.round(Math.pow(backoffBase, attemptNumber)));
-                        Instant nextRun = Instant.now().plus(delaySeconds, ChronoUnit.SECONDS);
-                        Storage.scheduleRetry(job.id, Models.ISO.format(nextRun));
-                    } else {
-                        Storage.moveToDlq(job.id);
+                executor.execute(() -> {
+                    try {
+                        process(job);
+                    } catch (RuntimeException e) {
+                        System.err.println("Worker failed to process job " + job.id + ": " + e.getMessage());
+                    } finally {
+                        slots.release();
+                        touchPid();
                     }
-                }
-                touchPid();
+                });
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
+            wakeup.close();
+            // Let in-flight jobs finish before handing back the rest of the buffer.
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.SECONDS)) touchPid();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            heartbeat.shutdownNow();
+            maintenance.shutdownNow();
+            List<String> unstarted = new ArrayList<>();
+            for (Job j : buffer) unstarted.add(j.id);
+            store.releaseClaims(unstarted);
             if (pidFile != null && pidFile.exists()) pidFile.delete();
+            Telemetry.publishedFile().delete();
         }
     }
 
-    private void touchPid() {
-        try (FileWriter fw = new FileWriter(pidFile)) { fw.write(Long.toString(System.currentTimeMillis())); } catch (IOException ignored) {}
+    /** Asks {@link #run()} to return once in-flight jobs finish; for workers embedded in another command. */
+    public void stop() {
+        shouldStop.set(true);
     }
 
-    private ExecutionResult execute(Job job, int attemptNumber, int timeoutSeconds, File logDir) {
-        String safeId = job.id.replaceAll("[^a-zA-Z0-9_.-]", "_");
-        String logFileName = safeId + "-attempt-" + attemptNumber + "-" + System.currentTimeMillis() + ".log";
-        File logFile = new File(logDir, logFileName);
+    /**
+     * Sleeps until the earliest claimable pending job is due, unless a notification comes first.
+     * Package-private for tests.
+     */
+    static long idleWaitMillis(JobStore store) {
+        Instant next = store.nextPendingRunAt();
+        if (next == null) return IDLE_MAX_WAIT_MS;
+        long untilDue = next.toEpochMilli() - System.currentTimeMillis();
+        return Math.max(1L, Math.min(IDLE_MAX_WAIT_MS, untilDue));
+    }
+
+    private void process(Job job) {
+        int attemptNumber = job.attempts + 1;
+        int timeoutSeconds = job.timeout_seconds > 0 ? job.timeout_seconds : defaultTimeout;
+        Telemetry.QUEUE_WAIT.recordMillis(System.currentTimeMillis() - job.run_at);
+        ExecutionResult result = execute(job, attemptNumber, timeoutSeconds);
+        Telemetry.EXECUTION.recordMillis(result.durationMs);
+        long delaySeconds = Math.max(1L, Math.round(Math.pow(backoffBase, attemptNumber)));
+        long retryAt = System.currentTimeMillis() + delaySeconds * 1000L;
+        String state = store.completeAttempt(new Storage.Attempt(job.id, leaseOwner, attemptNumber, result.exitCode, result.durationMs, result.logPath, retryAt));
+        if (state == null) System.err.println("Lost the lease on " + job.id + " before attempt " + attemptNumber + " finished; result discarded");
+        if (result.exitCode == 0) Telemetry.SUCCEEDED.increment(); else Telemetry.FAILED.increment();
+        if ("dead".equals(state)) Telemetry.DEAD_LETTERED.increment();
+    }
+
+    /** Refreshes the pid file and, at most every third of a lease, the leases on our claimed jobs. */
+    private synchronized void touchPid() {
+        long now = System.currentTimeMillis();
+        if (pidFile != null) {
+            try (FileWriter fw = new FileWriter(pidFile)) { fw.write(Long.toString(now)); } catch (IOException ignored) {}
+        }
+        if (now - lastLeaseRenewal >= leaseSeconds * 1000L / 3) {
+            lastLeaseRenewal = now;
+            try {
+                store.renewLeases(leaseOwner, leaseSeconds);
+            } catch (RuntimeException e) {
+                System.err.println("Failed to renew leases: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void compact(ObjectNode cfg) {
+        try {
+            Gc.Result r = Gc.run(cfg);
+            if (r.archived > 0) System.err.println("Archived " + r.archived + " completed job(s), deleted " + r.logs_deleted + " log file(s)");
+        } catch (RuntimeException e) {
+            System.err.println("Compactor failed: " + e.getMessage());
+        }
+    }
+
+    private void heartbeat() {
+        touchPid();
+        try {
+            int reclaimed = store.reclaimExpiredLeases(leaseSeconds);
+            if (reclaimed > 0) System.err.println("Reclaimed " + reclaimed + " job(s) with expired leases");
+        } catch (RuntimeException e) {
+            System.err.println("Lease reaper failed: " + e.getMessage());
+        }
+    }
+
+    private ExecutionResult execute(Job job, int attemptNumber, int timeoutSeconds) {
         ProcessBuilder pb = new ProcessBuilder("bash", "-lc", job.command);
         pb.redirectErrorStream(true);
-        pb.redirectOutput(ProcessBuilder.Redirect.to(logFile));
         long start = System.currentTimeMillis();
         int exitCode = 127;
         boolean timedOut = false;
+        JobLogs.Capture capture;
+        try {
+            capture = logs.open(job, attemptNumber);
+        } catch (IOException e) {
+            System.err.println("Cannot open log for " + job.id + ": " + e.getMessage());
+            return new ExecutionResult(exitCode, 0, false, null);
+        }
         try {
             Process process = pb.start();
+            Thread pump = new Thread(() -> capture.pump(process.getInputStream()), "queuectl-log-" + job.id);
+            pump.setDaemon(true);
+            pump.start();
             if (timeoutSeconds > 0) {
                 boolean finished = process.waitFor(timeoutSeconds, TimeUnit.SECONDS);
                 if (!finished) {
                     timedOut = true;
+                    // Children would otherwise outlive the shell and keep the output pipe open.
+                    process.descendants().forEach(ProcessHandle::destroyForcibly);
                     process.destroyForcibly();
                     process.waitFor(5, TimeUnit.SECONDS);
                     exitCode = 124;
@@ -92,11 +265,25 @@ public class Worker {
             } else {
                 exitCode = process.waitFor();
             }
+            // A background child that inherited stdout can hold the pipe open indefinitely.
+            pump.join(LOG_DRAIN_MS);
         } catch (Exception e) {
             exitCode = 127;
         }
         long duration = System.currentTimeMillis() - start;
-        return new ExecutionResult(exitCode, duration, timedOut, logFile.getAbsolutePath());
+        String logPath;
+        try {
+            logPath = capture.finish();
+        } catch (IOException e) {
+            System.err.println("Failed to store log for " + job.id + ": " + e.getMessage());
+            logPath = capture.liveFile().getAbsolutePath();
+        }
+        return new ExecutionResult(exitCode, duration, timedOut, logPath);
+    }
+
+    /** File-name-safe form of a job id; every attempt log of the job starts with it. */
+    static String logFilePrefix(String jobId) {
+        return jobId.replaceAll("[^a-zA-Z0-9_.-]", "_");
     }
 
     private static class ExecutionResult {
@@ -1,8 +1,29 @@
 package com.queuectl;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.queuectl.Models.Job;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class FlowTest {
@@ -13,6 +34,484 @@ public class FlowTest {
         Storage.upsert(j);
         assertNotNull(Storage.listJobs(null));
     }
-}
 
+    @Test
+    public void testMigrationsRecordLatestVersion() throws Exception {
+        Storage.init();
+        try (Connection c = Storage.getConn(); Statement s = c.createStatement(); ResultSet rs = s.executeQuery("SELECT version FROM schema_version")) {
+            assertTrue(rs.next());
+            assertEquals(Migrations.latestVersion(), rs.getInt(1));
+        }
+    }
+
+    @Test
+    public void testEpochMillisMigrationBackfillsIsoRows() throws Exception {
+        File db = Files.createTempFile("queuectl-v6-", ".db").toFile();
+        try (Connection c = DriverManager.getConnection("jdbc:sqlite:" + db); Statement s = c.createStatement()) {
+            Migrations.migrate(c, 6);
+            String cols = "(id, command, state, attempts, max_retries, priority, run_at, created_at, updated_at, last_finished_at, lease_expires_at, run_count, success_count)";
+            s.executeUpdate("INSERT INTO jobs " + cols + " VALUES " +
+                "('v6-late', 'true', 'pending', 0, 3, 7, '2024-01-01T00:00:03Z', '2024-01-01T00:00:00Z', '2024-01-01T00:00:00Z', NULL, NULL, 0, 0), " +
+                "('v6-space', 'true', 'pending', 0, 3, 7, '2024-01-01 00:00:01.500', '2024-01-01T00:00:00Z', '2024-01-01T00:00:00Z', NULL, NULL, 0, 0), " +
+                "('v6-no-run-at', 'true', 'pending', 0, 3, 7, NULL, '2024-01-01T00:00:02Z', NULL, NULL, NULL, 0, 0), " +
+                "('v6-bad-run-at', 'true', 'pending', 0, 3, 7, 'soon', '2024-01-01T00:00:00.250Z', 'garbage', NULL, 'never', 0, 0), " +
+                "('v6-all-bad', 'true', 'pending', 0, 3, 7, 'x', 'y', 'z', NULL, NULL, 0, 0), " +
+                "('v6-done', 'true', 'completed', 1, 3, 0, '2024-01-01T00:00:00Z', '2024-01-01T00:00:00Z', '2024-01-02T00:00:00Z', '2024-01-02T00:00:00Z', NULL, 1, 1)");
+            s.executeUpdate("INSERT INTO dead_letter_jobs " + cols + " VALUES " +
+                "('v6-dead', 'false', 'dead', 4, 3, 0, '2024-01-01T00:00:00Z', '2024-01-01T00:00:00Z', '2024-01-01T12:00:00Z', '2024-01-01T12:00:00Z', NULL, 4, 0)");
+        }
+        String previous = Storage.useDatabase(db.getPath());
+        try {
+            long base = 1704067200000L;
+            Map<String, Long[]> expected = new HashMap<>();
+            // run_at, created_at, updated_at, last_finished_at, lease_expires_at
+            expected.put("v6-late", new Long[]{base + 3000, base, base, null, null});
+            expected.put("v6-space", new Long[]{base + 1500, base, base, null, null});
+            expected.put("v6-no-run-at", new Long[]{base + 2000, base + 2000, base + 2000, null, null});
+            expected.put("v6-bad-run-at", new Long[]{base + 250, base + 250, base + 250, null, null});
+            expected.put("v6-all-bad", new Long[]{0L, 0L, 0L, null, null});
+            expected.put("v6-done", new Long[]{base, base, base + 86_400_000, base + 86_400_000, null});
+            try (Connection c = Storage.getConn(); Statement s = c.createStatement();
+                 ResultSet rs = s.executeQuery("SELECT id, run_at, created_at, updated_at, last_finished_at, lease_expires_at, typeof(run_at) FROM jobs")) {
+                int rows = 0;
+                while (rs.next()) {
+                    rows++;
+                    Long[] want = expected.get(rs.getString(1));
+                    assertEquals("integer", rs.getString(7), rs.getString(1));
+                    for (int i = 0; i < want.length; i++) {
+                        long v = rs.getLong(i + 2);
+                        assertEquals(want[i], rs.wasNull() ? null : v, rs.getString(1) + " column " + (i + 2));
+                    }
+                }
+                assertEquals(expected.size(), rows);
+            }
+            Storage.Counts counts = Storage.counts();
+            assertEquals(5, counts.pending);
+            assertEquals(1, counts.completed);
+            assertEquals(1, counts.dead);
+            assertEquals(5, counts.run_count);
+            assertEquals(1, counts.success_count);
+            assertEquals(base + 86_400_000, counts.last_finished_at);
+            assertTrue(Storage.checkStats(false).consistent);
+            List<String> order = new ArrayList<>();
+            for (Job j : Storage.fetchAndLockBatch(10)) order.add(j.id);
+            assertEquals(List.of("v6-all-bad", "v6-bad-run-at", "v6-space", "v6-no-run-at", "v6-late"), order);
+        } finally {
+            Storage.useDatabase(previous);
+            for (String suffix : new String[]{"", "-wal", "-shm"}) new File(db.getPath() + suffix).delete();
+        }
+    }
+
+    @Test
+    public void testQueueStatsMatchRecount() {
+        Storage.upsert(new Job("test-stats", "echo hi"));
+        Storage.fetchAndLockBatch(5);
+        Storage.StatsCheck check = Storage.checkStats(false);
+        assertTrue(check.consistent);
+    }
 
+    @Test
+    public void testExpiredLeaseIsReclaimed() throws Exception {
+        Job j = new Job("test-lease", "echo hi");
+        j.priority = 1_000;
+        Storage.upsert(j);
+        Job claimed = Storage.fetchAndLockBatch(1, "dead-worker:1", 0).get(0);
+        assertEquals("test-lease", claimed.id);
+        Thread.sleep(5);
+        assertTrue(Storage.reclaimExpiredLeases(60) >= 1);
+        Job reclaimed = Storage.getJob("test-lease");
+        assertEquals("pending", reclaimed.state);
+        assertEquals(1, reclaimed.attempts);
+        assertNull(reclaimed.lease_owner);
+    }
+
+    @Test
+    public void testCompletionAfterLostLeaseIsDropped() throws Exception {
+        String id = "test-late-" + System.nanoTime();
+        Job j = new Job(id, "echo hi");
+        j.priority = 3_000_000;
+        Storage.upsert(j);
+        assertEquals(id, Storage.fetchAndLockBatch(1, "slow-worker:1", 0).get(0).id);
+        Thread.sleep(5);
+        assertTrue(Storage.reclaimExpiredLeases(60) >= 1);
+        assertEquals(id, Storage.fetchAndLockBatch(1, "other-worker:2", 60).get(0).id);
+        assertNull(Storage.completeAttempt(new Storage.Attempt(id, "slow-worker:1", 1, 1, 5L, null, 0)));
+        Job current = Storage.getJob(id);
+        assertEquals("processing", current.state);
+        assertEquals("other-worker:2", current.lease_owner);
+        assertEquals(0, current.run_count);
+        assertEquals("completed", Storage.completeAttempt(new Storage.Attempt(id, "other-worker:2", 2, 0, 5L, null, 0)));
+        assertTrue(Storage.checkStats(false).consistent);
+    }
+
+    @Test
+    public void testBulkDlqReplayMovesOnlyMatchingRows() throws Exception {
+        String prefix = "test-replay-" + System.nanoTime() + "-";
+        for (int i = 0; i < 5; i++) {
+            Job j = new Job(prefix + i, "exit 1");
+            j.last_exit_code = i < 3 ? 124 : 1;
+            Storage.upsert(j);
+            Storage.moveToDlq(j.id);
+        }
+        Storage.DlqFilter filter = new Storage.DlqFilter();
+        filter.idPrefix = prefix;
+        filter.exitCode = 124;
+        assertEquals(3, Dlq.retryMatching(filter, 2, 0));
+        assertEquals("pending", Storage.getJob(prefix + "0").state);
+        assertEquals(0, Storage.getJob(prefix + "0").attempts);
+        filter.exitCode = null;
+        assertEquals(2, Dlq.retryMatching(filter, 500, 0));
+        assertTrue(Storage.checkStats(false).consistent);
+    }
+
+    @Test
+    public void testChangeFeedPagesEveryChangeInTheSameMillisecond() {
+        String prefix = "test-changes-" + System.nanoTime() + "-";
+        long seq = Storage.lastChange();
+        List<Job> batch = new ArrayList<>();
+        for (int i = 0; i < 30; i++) batch.add(new Job(prefix + i, "true"));
+        Storage.upsertBatch(batch);
+        Storage.moveToDlq(prefix + "0");
+        Set<String> live = new HashSet<>();
+        Set<String> dead = new HashSet<>();
+        while (true) {
+            Storage.Changes page = Storage.changesSince(seq, 7);
+            assertFalse(page.truncated);
+            if (page.seq == seq) break;
+            seq = page.seq;
+            page.jobs.forEach(j -> live.add(j.id));
+            page.dlq.forEach(j -> dead.add(j.id));
+        }
+        for (int i = 1; i < 30; i++) assertTrue(live.contains(prefix + i));
+        assertTrue(dead.contains(prefix + "0"));
+    }
+
+    @Test
+    public void testGcDeletesOnlyLogsRecordedOnArchivedRows() throws Exception {
+        File dir = Files.createTempDirectory("queuectl-gc-").toFile();
+        String previous = Storage.useDatabase(new File(dir, "queue.db").getPath());
+        try {
+            File logs = new File(dir, "logs");
+            File segments = new File(logs, JobLogs.SEGMENT_DIR);
+            assertTrue(segments.mkdirs());
+            // "gc/a" and "gc_a" sanitize to the same file name prefix.
+            File archivedLog = new File(logs, "gc_a-attempt-1-1.log.gz");
+            File otherLog = new File(logs, "gc_a-attempt-1-2.log.gz");
+            // Named after a pid that is not running, so both segments count as sealed.
+            File onlyArchived = new File(segments, "seg-999999999-1-1.gzs");
+            File shared = new File(segments, "seg-999999999-1-2.gzs");
+            for (File f : new File[]{archivedLog, otherLog, onlyArchived, shared}) Files.writeString(f.toPath(), "xx");
+
+            long old = System.currentTimeMillis() - 60_000;
+            String[][] rows = {
+                {"gc/a", "completed", archivedLog.getAbsolutePath()},
+                {"gc-packed", "completed", onlyArchived.getAbsolutePath() + "#0+2"},
+                {"gc-shared-done", "completed", shared.getAbsolutePath() + "#0+1"},
+                {"gc_a", "pending", otherLog.getAbsolutePath()},
+                {"gc-shared-live", "pending", shared.getAbsolutePath() + "#1+1"},
+            };
+            for (String[] r : rows) {
+                Job j = new Job(r[0], "true");
+                j.state = r[1];
+                j.last_output_path = r[2];
+                j.created_at = old;
+                j.updated_at = old;
+                Storage.upsert(j);
+            }
+            ObjectNode cfg = Config.load();
+            cfg.put("retention_completed_seconds", 1);
+            cfg.put("log_retention_seconds", 0);
+            cfg.put("log_directory", logs.getPath());
+            Gc.Result result = Gc.run(cfg);
+
+            assertEquals(3, result.archived);
+            assertEquals(2, result.logs_deleted);
+            assertFalse(archivedLog.exists());
+            assertFalse(onlyArchived.exists());
+            assertTrue(otherLog.exists());
+            assertTrue(shared.exists());
+        } finally {
+            Storage.useDatabase(previous);
+            try (Stream<Path> walk = Files.walk(dir.toPath())) {
+                walk.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void testGroupCommitCompletesQueuedAttempts() {
+        String prefix = "test-group-" + System.nanoTime() + "-";
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Job j = new Job(prefix + i, "true");
+            j.priority = 2_000_000;
+            Storage.upsert(j);
+        }
+        List<Job> claimed = Storage.fetchAndLockBatch(20, "test-group", 60);
+        assertEquals(20, claimed.size());
+        for (Job j : claimed) {
+            futures.add(Storage.completeAttemptAsync(new Storage.Attempt(j.id, "test-group", 1, j.id.hashCode() & 1, 5L, null, System.currentTimeMillis() + 60_000)));
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals((claimed.get(i).id.hashCode() & 1) == 0 ? "completed" : "pending", futures.get(i).join());
+        }
+        assertTrue(Storage.checkStats(false).consistent);
+    }
+
+    @Test
+    public void testMemoryStoreClaimsInPriorityOrderAndDeadLetters() {
+        JobStore store = new MemoryJobStore();
+        for (int i = 0; i < 3; i++) {
+            Job j = new Job("mem-" + i, "true");
+            j.priority = i;
+            j.max_retries = 1;
+            store.upsert(j);
+        }
+        Job later = new Job("mem-later", "true");
+        later.priority = 100;
+        later.run_at = System.currentTimeMillis() + 60_000;
+        store.upsert(later);
+        List<Job> claimed = store.fetchAndLockBatch(2, "test", 60, null);
+        assertEquals(List.of("mem-2", "mem-1"), claimed.stream().map(j -> j.id).toList());
+        assertEquals("completed", store.completeAttempt(new Storage.Attempt("mem-2", "test", 1, 0, 5L, null, 0)));
+        assertEquals("dead", store.completeAttempt(new Storage.Attempt("mem-1", "test", 1, 1, 5L, null, 0)));
+        Storage.Counts counts = store.counts();
+        assertEquals(2, counts.pending);
+        assertEquals(1, counts.completed);
+        assertEquals(1, counts.dead);
+        assertTrue(store.retryFromDlq("mem-1"));
+        assertEquals(List.of("mem-1", "mem-0"), store.fetchAndLockBatch(5, "test", 60, null).stream().map(j -> j.id).toList());
+        assertNull(store.completeAttempt(new Storage.Attempt("mem-0", "other-worker", 1, 0, 5L, null, 0)));
+        assertEquals("processing", store.getJob("mem-0").state);
+    }
+
+    @Test
+    public void testQueueSchedulerSharesClaimsByWeightWithinLimits() throws Exception {
+        Map<String, QueueScheduler.Policy> policies = new HashMap<>();
+        policies.put("web", new QueueScheduler.Policy(0, 3));
+        policies.put("heavy", new QueueScheduler.Policy(2, 1));
+        QueueScheduler scheduler = new QueueScheduler(policies);
+        Map<String, Integer> running = new HashMap<>();
+        StringBuilder order = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            List<Job> claimed = scheduler.claim(1, List.of("bulk", "heavy", "web"), running, (queue, n) -> {
+                List<Job> out = new ArrayList<>();
+                for (int k = 0; k < n; k++) {
+                    Job j = new Job(queue + "-" + k, "true");
+                    j.queue = queue;
+                    out.add(j);
+                }
+                return out;
+            });
+            for (Job j : claimed) order.append(j.queue.charAt(0));
+        }
+        // bulk gets 1 per round and web 3; heavy stops at its limit of 2 running.
+        assertEquals("bhwwwbhwwwbwwwbwwwbw", order.toString());
+        assertEquals(2, running.get("heavy"));
+    }
+
+    @Test
+    public void testIdleWorkersWaitWhileDueJobsSitInAFullQueue() throws Exception {
+        File dir = Files.createTempDirectory("queuectl-capped-").toFile();
+        String previous = Storage.useDatabase(new File(dir, "queue.db").getPath());
+        Storage.configureQueues(Map.of("capped", new QueueScheduler.Policy(1, 1)));
+        try {
+            JobStore store = new SqliteJobStore();
+            for (int i = 0; i < 3; i++) {
+                Job j = new Job("capped-" + i, "true");
+                j.queue = "capped";
+                store.upsert(j);
+            }
+            List<Job> running = store.fetchAndLockBatch(5, "test", 60, null);
+            assertEquals(1, running.size());
+            // Two more are due, but the queue is full: an idle worker sleeps instead of re-claiming.
+            assertEquals(Worker.IDLE_MAX_WAIT_MS, Worker.idleWaitMillis(store));
+            assertTrue(store.fetchAndLockBatch(5, "test", 60, null).isEmpty());
+
+            Job later = new Job("capped-other", "true");
+            later.queue = "other";
+            later.run_at = System.currentTimeMillis() + 5_000;
+            store.upsert(later);
+            long wait = Worker.idleWaitMillis(store);
+            assertTrue(wait > 3_000 && wait <= 5_000, "waited " + wait);
+
+            assertEquals("completed", store.completeAttempt(new Storage.Attempt(running.get(0).id, "test", 1, 0, 5L, null, 0)));
+            assertEquals(1, Worker.idleWaitMillis(store));
+            assertEquals(1, store.fetchAndLockBatch(5, "test", 60, null).size());
+        } finally {
+            Storage.configureQueues(Map.of());
+            Storage.useDatabase(previous);
+            File[] files = dir.listFiles();
+            if (files != null) for (File f : files) f.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testShardedStoreKeepsNamedQueueOnOneShard() {
+        ShardedJobStore store = new ShardedJobStore(3, false);
+        String prefix = "test-shard-" + System.nanoTime() + "-";
+        int pendingBefore = store.counts().pending;
+        for (int i = 0; i < 6; i++) {
+            Job j = new Job(prefix + i, "true");
+            j.queue = "reports";
+            j.priority = 1_000_000;
+            store.upsert(j);
+        }
+        int shard = store.shardFor(store.getJob(prefix + "0"));
+        for (int i = 0; i < 6; i++) {
+            String id = prefix + i;
+            assertNotNull(Storage.onShard(shard, () -> Storage.getJob(id)));
+        }
+        assertEquals(pendingBefore + 6, store.counts().pending);
+        assertNull(store.completeAttempt(new Storage.Attempt(prefix + "0", "test", 1, 0, 5L, null, 0)));
+        Job claimed = Storage.onShard(shard, () -> Storage.fetchAndLockBatch(1, "test", 60)).get(0);
+        assertTrue(claimed.id.startsWith(prefix));
+        assertEquals("completed", store.completeAttempt(new Storage.Attempt(claimed.id, "test", 1, 0, 5L, null, 0)));
+        assertEquals("reports", store.getJob(claimed.id).queue);
+        assertEquals(pendingBefore + 5, store.counts().pending);
+    }
+
+    @Test
+    public void testShardedStoreKeepsReEnqueuedIdOnItsShard() throws Exception {
+        File dir = Files.createTempDirectory("queuectl-shards-").toFile();
+        String previous = Storage.useDatabase(new File(dir, "queue.db").getPath());
+        try {
+            ShardedJobStore store = new ShardedJobStore(3, false);
+            Job first = new Job("moved-0", "true");
+            Job second = new Job("moved-1", "true");
+            store.upsertBatch(List.of(first, second));
+            int shard = store.shardFor(first);
+            int other = -1;
+            for (int i = 0; other < 0; i++) {
+                Job probe = new Job("probe", "true");
+                probe.queue = "elsewhere-" + i;
+                if (store.shardFor(probe) != shard && store.shardFor(probe) != store.shardFor(second)) other = i;
+            }
+            first.queue = "elsewhere-" + other;
+            store.upsert(first);
+            second.queue = "elsewhere-" + other;
+            store.upsertBatch(List.of(second));
+
+            assertEquals(2, store.counts().pending);
+            assertEquals(first.queue, Storage.onShard(shard, () -> Storage.getJob("moved-0")).queue);
+            assertEquals(second.queue, Storage.onShard(store.shardFor(new Job("moved-1", "true")), () -> Storage.getJob("moved-1")).queue);
+        } finally {
+            Storage.useDatabase(previous);
+            File[] files = dir.listFiles();
+            if (files != null) for (File f : files) f.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testShardedStoreForgetsLostClaimsAndReportsStrandedShards() throws Exception {
+        File dir = Files.createTempDirectory("queuectl-shards-").toFile();
+        String previous = Storage.useDatabase(new File(dir, "queue.db").getPath());
+        try {
+            ShardedJobStore store = new ShardedJobStore(3, false);
+            for (int i = 0; i < 6; i++) store.upsert(new Job("strand-" + i, "true"));
+            List<Job> claimed = store.fetchAndLockBatch(6, "test", 0, null);
+            assertEquals(6, claimed.size());
+            assertEquals(6, store.rememberedClaims());
+            Thread.sleep(5);
+            assertEquals(6, store.reclaimExpiredLeases(0));
+            assertEquals(0, store.renewLeases("test", 60));
+            assertEquals(0, store.rememberedClaims());
+
+            assertTrue(Storage.strandedShards(3).isEmpty());
+            Map<String, Integer> stranded = Storage.strandedShards(1);
+            assertFalse(stranded.isEmpty());
+            for (int shard = 1; shard < 3; shard++) {
+                int pending = Storage.onShard(shard, () -> Storage.counts().pending);
+                assertEquals(pending, stranded.getOrDefault(Storage.shardPath(shard), 0));
+            }
+        } finally {
+            Storage.useDatabase(previous);
+            File[] files = dir.listFiles();
+            if (files != null) for (File f : files) f.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testWakeupIgnoresRuntimeFilesOtherThanSignals() throws Exception {
+        try (Wakeup wakeup = new Wakeup()) {
+            Files.writeString(new File(Worker.RUNTIME_DIR, "worker-test.pid").toPath(), "1");
+            Files.writeString(new File(Worker.RUNTIME_DIR, "metrics-test.json").toPath(), "{}");
+            assertFalse(wakeup.await(300));
+            Wakeup.signal();
+            assertTrue(wakeup.await(5_000));
+        } finally {
+            new File(Worker.RUNTIME_DIR, "worker-test.pid").delete();
+            new File(Worker.RUNTIME_DIR, "metrics-test.json").delete();
+        }
+    }
+
+    @Test
+    public void testHistogramBucketBoundsAreUniqueAndIncreasing() {
+        long previous = 0;
+        for (int i = 0; i < Telemetry.Histogram.BUCKETS; i++) {
+            long bound = Telemetry.Histogram.upperBound(i);
+            assertTrue(bound > previous, "bucket " + i);
+            previous = bound;
+        }
+        for (long v : new long[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 1_000, 123_456_789}) {
+            int i = Telemetry.Histogram.index(v);
+            assertTrue(v < Telemetry.Histogram.upperBound(i), "value " + v);
+            assertTrue(i == 0 || v >= Telemetry.Histogram.upperBound(i - 1), "value " + v);
+        }
+        String metrics = Telemetry.render(new Storage.Counts(), 0, List.of(Telemetry.snapshot()));
+        List<String> buckets = metrics.lines().filter(l -> l.startsWith("queuectl_execution_seconds_bucket")).toList();
+        assertEquals(buckets.size(), new HashSet<>(buckets.stream().map(l -> l.substring(0, l.lastIndexOf(' '))).toList()).size());
+    }
+
+    @Test
+    public void testJobLogKeepsHeadAndTailWithinCap() throws Exception {
+        File dir = Files.createTempDirectory("queuectl-logs").toFile();
+        JobLogs.Capture capture = new JobLogs(dir, 64).open(new Job("test-log", "true"), 1);
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < 1000; i++) out.append(i).append('\n');
+        capture.pump(new ByteArrayInputStream(out.toString().getBytes(StandardCharsets.UTF_8)));
+        String ref = capture.finish();
+        assertTrue(JobLogs.isSegmentRef(ref));
+        String log = JobLogs.read(ref);
+        assertTrue(log.startsWith("0\n1\n2\n"));
+        assertTrue(log.contains("bytes omitted"));
+        assertTrue(log.endsWith("998\n999\n"));
+    }
+
+    @Test
+    public void testLogFollowerStreamsPastTheHeadCap() throws Exception {
+        File dir = Files.createTempDirectory("queuectl-follow").toFile();
+        Job job = new Job("test-follow-" + System.nanoTime(), "true");
+        job.state = "processing";
+        job.priority = -1_000_000;
+        JobLogs.Capture capture = new JobLogs(dir, 64).open(job, 1);
+        job.last_output_path = capture.liveFile().getAbsolutePath();
+        Storage.upsert(job);
+        StringBuilder written = new StringBuilder();
+        for (int i = 0; i < 1000; i++) written.append(i).append('\n');
+        capture.pump(new ByteArrayInputStream(written.toString().getBytes(StandardCharsets.UTF_8)));
+
+        ByteArrayOutputStream followed = new ByteArrayOutputStream();
+        try (LogFollower follower = new LogFollower(job.id, null, 0)) {
+            follower.poll(followed, 0);
+            // Everything so far, not just the first 32 bytes the cap keeps at the head.
+            assertEquals(written.toString(), followed.toString(StandardCharsets.UTF_8));
+
+            job.last_output_path = capture.finish();
+            job.state = "completed";
+            Storage.upsert(job);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (follower.poll(followed, 100)) assertTrue(System.currentTimeMillis() < deadline);
+        }
+        // Switching to the stored, cut log repeats nothing.
+        assertEquals(written.toString(), followed.toString(StandardCharsets.UTF_8));
+        String stored = JobLogs.read(job.last_output_path);
+        assertTrue(stored.contains("bytes omitted"));
+        assertEquals(32, JobLogs.storedOffset(job.last_output_path, 32));
+        assertEquals(32, JobLogs.storedOffset(job.last_output_path, 100));
+        assertEquals(stored.length(), JobLogs.storedOffset(job.last_output_path, written.length()));
+    }
+}